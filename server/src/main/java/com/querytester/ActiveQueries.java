@@ -0,0 +1,205 @@
+package com.querytester;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queries currently running, by a server-assigned id. A query is registered for the whole request,
+ * from waiting for its datasource to the last row, and can be cancelled from another thread: the
+ * running JDBC statement is cancelled through Hibernate, and the executing thread rolls back when
+ * the driver reports the cancellation. Requests waiting for an identical running query are
+ * registered too, with no thread; cancelling one ends its wait.
+ */
+final class ActiveQueries {
+    private static final Logger LOG = LoggerFactory.getLogger(ActiveQueries.class);
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private static final Map<String, ActiveQuery> ACTIVE = new ConcurrentHashMap<>();
+    // Query registered by the request running on this thread
+    private static final ThreadLocal<ActiveQuery> CURRENT = new ThreadLocal<>();
+
+    private ActiveQueries() {
+    }
+
+    /**
+     * Thrown on the executing thread when it notices its query was cancelled between statements
+     */
+    static final class CancelledException extends RuntimeException {
+        CancelledException(String id) {
+            super("Query " + id + " was cancelled");
+        }
+    }
+
+    static final class ActiveQuery implements AutoCloseable {
+        final String id = "q" + COUNTER.incrementAndGet();
+        final String requestId;
+        final String query;
+        final boolean nativeQuery;
+        final String datasource;
+        final Object owner;
+        // Null for a request waiting for another's execution
+        final Thread thread;
+        final long started = System.currentTimeMillis();
+        private final Runnable onCancel;
+        private Session session;
+        private boolean cancelled;
+
+        private ActiveQuery(String requestId, Server.Request request, Object owner, Runnable onCancel) {
+            this.requestId = requestId;
+            this.query = request.query;
+            this.nativeQuery = request.isNative;
+            this.datasource = DatasourceLimiter.datasourceKey(request.dbConfig);
+            this.owner = owner;
+            this.onCancel = onCancel;
+            this.thread = onCancel == null ? Thread.currentThread() : null;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels the statement running on the query's Session, if any; later statements are not started
+         */
+        boolean cancel() {
+            Session running;
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                cancelled = true;
+                running = session;
+            }
+            LOG.info("Cancelling query {} on {} after {} ms", id, datasource, System.currentTimeMillis() - started);
+            if (onCancel != null) {
+                onCancel.run();
+            }
+            if (running != null) {
+                try {
+                    running.cancelQuery();
+                } catch (RuntimeException e) {
+                    // Closed meanwhile, or the driver cannot cancel; the flag still stops the next statement
+                    LOG.debug("Could not cancel statement of query {}: {}", id, e.getMessage());
+                }
+            }
+            return true;
+        }
+
+        private synchronized void attach(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void close() {
+            ACTIVE.remove(id, this);
+            if (CURRENT.get() == this) {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Registers the query of {@code request} as running on this thread until the returned handle is closed.
+     * {@code requestId} is the id of the request being answered, which for fetchNext is not the
+     * query's own; {@code owner} is the connection it came from, or null.
+     */
+    static ActiveQuery register(String requestId, Server.Request request, Object owner) {
+        ActiveQuery active = new ActiveQuery(requestId, request, owner, null);
+        ACTIVE.put(active.id, active);
+        CURRENT.set(active);
+        return active;
+    }
+
+    /**
+     * Registers a request that waits for an identical running query instead of running on a thread,
+     * until the returned handle is closed; cancelling it runs {@code onCancel}
+     */
+    static ActiveQuery registerWaiting(String requestId, Server.Request request, Object owner, Runnable onCancel) {
+        ActiveQuery active = new ActiveQuery(requestId, request, owner, onCancel);
+        ACTIVE.put(active.id, active);
+        return active;
+    }
+
+    /**
+     * Makes {@code session} the one cancelled for this thread's query; no-op outside a registered request
+     */
+    static void attach(Session session) {
+        ActiveQuery active = CURRENT.get();
+        if (active != null) {
+            active.attach(session);
+            checkCancelled();
+        }
+    }
+
+    /**
+     * Throws if this thread's query was cancelled; called before each statement and between cursor rows
+     */
+    static void checkCancelled() {
+        ActiveQuery active = CURRENT.get();
+        if (active != null && active.isCancelled()) {
+            throw new CancelledException(active.id);
+        }
+    }
+
+    static boolean isCurrentCancelled() {
+        ActiveQuery active = CURRENT.get();
+        return active != null && active.isCancelled();
+    }
+
+    /**
+     * Returns false when no query with this id is running or it was already cancelled
+     */
+    static boolean cancel(String id) {
+        ActiveQuery active = id != null ? ACTIVE.get(id) : null;
+        return active != null && active.cancel();
+    }
+
+    /**
+     * Cancels every query from a connection that went away
+     */
+    static int cancelAll(Object owner) {
+        int count = 0;
+        for (ActiveQuery active : ACTIVE.values()) {
+            if (owner != null && active.owner == owner && active.cancel()) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOG.info("Client disconnected, cancelled {} running queries", count);
+        }
+        return count;
+    }
+
+    /**
+     * Running queries, oldest first
+     */
+    static List<Map<String, Object>> list() {
+        List<ActiveQuery> running = new ArrayList<>(ACTIVE.values());
+        running.sort(Comparator.comparingLong(active -> active.started));
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (ActiveQuery active : running) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("queryId", active.id);
+            row.put("requestId", active.requestId);
+            row.put("query", active.query);
+            row.put("isNative", active.nativeQuery);
+            row.put("datasource", active.datasource);
+            row.put("thread", active.thread != null ? active.thread.getName() : null);
+            row.put("coalesced", active.thread == null);
+            row.put("elapsedMs", now - active.started);
+            row.put("cancelled", active.isCancelled());
+            rows.add(row);
+        }
+        return rows;
+    }
+}
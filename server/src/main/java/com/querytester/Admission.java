@@ -0,0 +1,148 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides when a request may take a worker. Requests that query a datasource go through its bulkhead:
+ * at most {@link DatasourceLimiter#getMaxConcurrent()} of them run at once, and the rest wait in the
+ * datasource's own queue without holding a worker, so a slow database cannot take every worker away
+ * from the others. Waiting requests are bounded in total and per datasource; beyond that a request is
+ * rejected at once, with an estimate of when to retry, instead of waiting indefinitely.
+ */
+final class Admission {
+    private static final Logger LOG = LoggerFactory.getLogger(Admission.class);
+    private static final long MIN_RETRY_AFTER_MS = 100;
+    private static final long MAX_RETRY_AFTER_MS = 10_000;
+
+    /**
+     * One datasource's running count and waiting requests
+     */
+    private static final class Bulkhead {
+        int running;
+        final Queue<Runnable> waiting = new ArrayDeque<>();
+    }
+
+    private final Executor workers;
+    private final int workerCount;
+    private final int maxQueued;
+    private final int maxQueuedPerDatasource;
+    private final Map<String, Bulkhead> bulkheads = new HashMap<>();
+    private int queued; // Admitted but not started yet: waiting in a bulkhead or in the worker queue
+    private volatile double averageRunMs = MIN_RETRY_AFTER_MS;
+
+    /**
+     * @param workerCount how many requests {@code workers} runs at once, for the retry estimate
+     * @param maxQueued requests that may wait at the same time; one datasource may hold half of them
+     */
+    Admission(Executor workers, int workerCount, int maxQueued) {
+        this.workers = workers;
+        this.workerCount = Math.max(1, workerCount);
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerDatasource = Math.max(1, maxQueued / 2);
+    }
+
+    /**
+     * Runs {@code task} on a worker once its datasource has room, or right away when {@code datasource}
+     * is null. Returns false, without running it, when too many requests are waiting already.
+     */
+    boolean submit(String datasource, Runnable task) {
+        Bulkhead bulkhead = null;
+        synchronized (this) {
+            if (queued >= maxQueued) {
+                LOG.warn("Request queue full ({} waiting), rejecting request", queued);
+                return false;
+            }
+            if (datasource != null) {
+                bulkhead = bulkheads.computeIfAbsent(datasource, key -> new Bulkhead());
+                if (bulkhead.running >= DatasourceLimiter.getMaxConcurrent()) {
+                    if (bulkhead.waiting.size() >= maxQueuedPerDatasource) {
+                        LOG.warn("Datasource {} has {} requests waiting, rejecting request", datasource, bulkhead.waiting.size());
+                        return false;
+                    }
+                    bulkhead.waiting.add(task);
+                    queued++;
+                    return true;
+                }
+                bulkhead.running++;
+            }
+            queued++;
+        }
+        try {
+            workers.execute(wrap(datasource, bulkhead, task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                queued--;
+                if (bulkhead != null) {
+                    bulkhead.running--;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * How long a rejected client should wait before trying again: roughly the time for the
+     * requests ahead of it to drain, from the average time a request has been taking
+     */
+    long retryAfterMs() {
+        int waiting;
+        synchronized (this) {
+            waiting = queued;
+        }
+        long estimate = (long) (averageRunMs * (waiting + 1) / workerCount);
+        return Math.max(MIN_RETRY_AFTER_MS, Math.min(MAX_RETRY_AFTER_MS, estimate));
+    }
+
+    synchronized int queued() {
+        return queued;
+    }
+
+    private Runnable wrap(String datasource, Bulkhead bulkhead, Runnable task) {
+        return () -> {
+            synchronized (this) {
+                queued--;
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                averageRunMs = averageRunMs * 0.8 + (System.nanoTime() - start) / 1_000_000.0 * 0.2;
+                if (bulkhead != null) {
+                    startNext(datasource, bulkhead);
+                }
+            }
+        };
+    }
+
+    /**
+     * Hands the finished request's slot to the next one waiting for the same datasource
+     */
+    private void startNext(String datasource, Bulkhead bulkhead) {
+        Runnable next;
+        synchronized (this) {
+            next = bulkhead.waiting.poll();
+            if (next == null) {
+                bulkhead.running--;
+                if (bulkhead.running == 0) {
+                    bulkheads.remove(datasource, bulkhead);
+                }
+                return;
+            }
+        }
+        try {
+            workers.execute(wrap(datasource, bulkhead, next));
+        } catch (RejectedExecutionException e) {
+            // Only when the pool is shutting down or shared with other submitters; don't strand the request
+            wrap(datasource, bulkhead, next).run();
+        }
+    }
+}
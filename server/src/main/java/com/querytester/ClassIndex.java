@@ -0,0 +1,460 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of the JPA-annotated classes in JARs and class directories. Annotations are read straight
+ * from the class files, for both {@code javax.persistence} and {@code jakarta.persistence}, so no
+ * class is loaded to find out whether it is mapped. Each root is read once for all packages.
+ */
+final class ClassIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ClassIndex.class);
+
+    enum Kind {
+        ENTITY,
+        EMBEDDABLE,
+        MAPPED_SUPERCLASS
+    }
+
+    private static final Map<String, Kind> ANNOTATIONS = Map.of(
+        "Ljavax/persistence/Entity;", Kind.ENTITY,
+        "Ljavax/persistence/Embeddable;", Kind.EMBEDDABLE,
+        "Ljavax/persistence/MappedSuperclass;", Kind.MAPPED_SUPERCLASS,
+        "Ljakarta/persistence/Entity;", Kind.ENTITY,
+        "Ljakarta/persistence/Embeddable;", Kind.EMBEDDABLE,
+        "Ljakarta/persistence/MappedSuperclass;", Kind.MAPPED_SUPERCLASS);
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final ForkJoinPool SCAN_POOL =
+        new ForkJoinPool(Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    private final List<String> packagePaths;
+    private final Map<String, Kind> classes = new LinkedHashMap<>();
+    private final List<String> duplicates = new ArrayList<>();
+    private int classFilesRead;
+
+    private ClassIndex(String[] packages) {
+        this.packagePaths = packagePaths(packages);
+    }
+
+    /**
+     * Packages as resource path prefixes, skipping empty names
+     */
+    static List<String> packagePaths(String[] packages) {
+        List<String> packagePaths = new ArrayList<>();
+        if (packages != null) {
+            for (String pkg : packages) {
+                if (pkg != null && !pkg.isEmpty()) {
+                    packagePaths.add(pkg.replace('.', '/'));
+                }
+            }
+        }
+        return packagePaths;
+    }
+
+    /**
+     * Indexes the annotated classes under {@code roots} (JARs or class directories) whose names start
+     * with one of {@code packages}; every class when no package is given. Several roots are scanned
+     * in parallel.
+     */
+    static ClassIndex scan(Collection<File> roots, String[] packages) {
+        return scan(roots, packages, null);
+    }
+
+    /**
+     * Same as {@link #scan(Collection, String[])}, reusing what {@code cache} holds for roots that did
+     * not change and storing the new results in it; no cache when null
+     */
+    static ClassIndex scan(Collection<File> roots, String[] packages, ScanCache cache) {
+        return scan(roots, packages, cache, Collections.emptyMap());
+    }
+
+    /**
+     * Same as {@link #scan(Collection, String[], ScanCache)}, reading the Spring Boot JARs among the
+     * roots from {@code fatJars}, keyed by absolute file, instead of opening and mapping them again
+     */
+    static ClassIndex scan(Collection<File> roots, String[] packages, ScanCache cache, Map<File, FatJar> fatJars) {
+        List<File> distinct = roots.stream().map(File::getAbsoluteFile).distinct().collect(Collectors.toList());
+        if (distinct.size() == 1) {
+            return scanRoot(distinct.get(0), packages, cache, fatJars);
+        }
+
+        // Roots are independent; each is indexed on its own and merged in the order given
+        List<ClassIndex> parts = SCAN_POOL.submit(() -> distinct.parallelStream()
+            .map(root -> scanRoot(root, packages, cache, fatJars))
+            .collect(Collectors.toList())).join();
+
+        ClassIndex index = new ClassIndex(packages);
+        Map<String, File> origins = new HashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            File root = distinct.get(i);
+            ClassIndex part = parts.get(i);
+            index.classFilesRead += part.classFilesRead;
+            for (Map.Entry<String, Kind> found : part.classes.entrySet()) {
+                File first = origins.putIfAbsent(found.getKey(), root);
+                if (first == null) {
+                    index.classes.put(found.getKey(), found.getValue());
+                } else {
+                    index.duplicates.add(found.getKey());
+                    LOG.warn("Class {} found in {} and {}, using the one in {}", found.getKey(), first, root, first);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static ClassIndex scanRoot(File root, String[] packages, ScanCache cache, Map<File, FatJar> fatJars) {
+        ClassIndex index = new ClassIndex(packages);
+        try {
+            if (root.isDirectory()) {
+                index.scanDirectory(root, cache);
+            } else if (root.isFile() && isArchive(root)) {
+                index.scanJar(root, cache, fatJars.get(root));
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not scan {}: {}", root, e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Annotated class names in the order they were found, with the annotation that matched
+     */
+    Map<String, Kind> classes() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    long count(Kind kind) {
+        return classes.values().stream().filter(kind::equals).count();
+    }
+
+    int classFilesRead() {
+        return classFilesRead;
+    }
+
+    /**
+     * Classes found in more than one root; the first root's copy is the one indexed
+     */
+    List<String> duplicates() {
+        return Collections.unmodifiableList(duplicates);
+    }
+
+    private void scanDirectory(File directory, ScanCache cache) throws IOException {
+        ScanCache.Record cached = cache != null ? cache.read(directory, packagePaths) : null;
+        Map<String, ScanCache.FileRecord> previous = cached != null && cached.files != null
+            ? cached.files : Collections.emptyMap();
+        Map<String, ScanCache.FileRecord> files = new LinkedHashMap<>();
+
+        Path root = directory.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> it = paths.filter(path -> path.toString().endsWith(".class")).iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                String resource = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (!accepts(resource)) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+
+                ScanCache.FileRecord record = previous.get(resource);
+                if (record == null || record.size != size || record.lastModified != lastModified) {
+                    // New or changed since the cached scan
+                    record = new ScanCache.FileRecord(size, lastModified, read(resource, Files.readAllBytes(file)));
+                }
+                files.put(resource, record);
+                if (record.kind != null) {
+                    classes.putIfAbsent(className(resource), record.kind);
+                }
+            }
+        }
+
+        // Unchanged files keep their cached record instances, so equality means nothing changed
+        if (cache != null && !files.equals(previous)) {
+            ScanCache.Record record = new ScanCache.Record();
+            record.files = files;
+            cache.write(directory, packagePaths, record);
+        }
+    }
+
+    /**
+     * @param opened the JAR already opened as a Spring Boot JAR, or null to find out here
+     */
+    private void scanJar(File jar, ScanCache cache, FatJar opened) throws IOException {
+        ScanCache.Record cached = cache != null ? cache.read(jar, packagePaths) : null;
+        if (cached != null && ScanCache.matchesJar(cached, jar)) {
+            cached.classes.forEach(classes::putIfAbsent);
+            if (cached.lastModified != jar.lastModified()) {
+                // Same content under a new timestamp; record it so the next start skips the hash
+                cached.lastModified = jar.lastModified();
+                cache.write(jar, packagePaths, cached);
+            }
+            return;
+        }
+
+        Map<String, Kind> found = new LinkedHashMap<>();
+        if (opened != null) {
+            scanFatJar(opened, found);
+        } else {
+            scanPlainOrFatJar(jar, found);
+        }
+        found.forEach(classes::putIfAbsent);
+
+        if (cache != null) {
+            cache.write(jar, packagePaths, ScanCache.jarRecord(jar, found));
+        }
+    }
+
+    private void scanPlainOrFatJar(File jar, Map<String, Kind> found) throws IOException {
+        boolean fatJar;
+        try (JarFile jarFile = new JarFile(jar)) {
+            fatJar = FatJar.isFatJar(jarFile);
+            if (!fatJar) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (entry.isDirectory() || !entry.getName().endsWith(".class") || !accepts(entry.getName())) {
+                        continue;
+                    }
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        Kind kind = read(entry.getName(), in.readAllBytes());
+                        if (kind != null) {
+                            found.putIfAbsent(className(entry.getName()), kind);
+                        }
+                    }
+                }
+            }
+        }
+        if (fatJar) {
+            scanFatJar(FatJar.open(jar), found);
+        }
+    }
+
+    /**
+     * Indexes a Spring Boot JAR's own classes and those of its nested libraries, read in place
+     */
+    private void scanFatJar(FatJar fatJar, Map<String, Kind> found) throws IOException {
+        for (MappedZip.Entry entry : fatJar.classEntries()) {
+            String resource = fatJar.resourceName(entry);
+            if (resource.endsWith(".class") && accepts(resource)) {
+                index(resource, fatJar.getArchive(), entry, found);
+            }
+        }
+        for (FatJar.Library library : fatJar.getLibraries()) {
+            for (MappedZip.Entry entry : library.archive.entries()) {
+                if (entry.name.endsWith(".class") && accepts(entry.name)) {
+                    index(entry.name, library.archive, entry, found);
+                }
+            }
+        }
+    }
+
+    private void index(String resource, MappedZip archive, MappedZip.Entry entry, Map<String, Kind> found) {
+        byte[] classFile;
+        try {
+            classFile = archive.read(entry);
+        } catch (IOException e) {
+            LOG.debug("Skipping unreadable entry {}: {}", entry.name, e.getMessage());
+            return;
+        }
+        Kind kind = read(resource, classFile);
+        if (kind != null) {
+            found.putIfAbsent(className(resource), kind);
+        }
+    }
+
+    static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jar") || name.endsWith(".war");
+    }
+
+    /**
+     * Filters on the entry name, before anything is read
+     */
+    private boolean accepts(String resource) {
+        return accepts(resource, packagePaths);
+    }
+
+    /**
+     * Whether a resource is a class file a scan over {@code packagePaths} reads; every package when empty
+     */
+    static boolean accepts(String resource, List<String> packagePaths) {
+        if (resource.startsWith("META-INF/") || resource.endsWith("module-info.class")
+            || resource.endsWith("package-info.class")) {
+            return false;
+        }
+        if (packagePaths.isEmpty()) {
+            return true;
+        }
+        for (String packagePath : packagePaths) {
+            if (resource.startsWith(packagePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Kind read(String resource, byte[] classFile) {
+        classFilesRead++;
+        try {
+            return annotationOf(classFile);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            LOG.debug("Skipping unreadable class file {}", resource);
+            return null;
+        }
+    }
+
+    private static String className(String resource) {
+        return resource.substring(0, resource.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * The JPA annotation on the class in {@code classFile}, or null when it has none. Only the constant
+     * pool and the class attributes are read; a class whose constant pool names no JPA annotation is
+     * rejected without going further.
+     */
+    static Kind annotationOf(byte[] classFile) {
+        ByteBuffer in = ByteBuffer.wrap(classFile);
+        if (in.getInt() != CLASS_MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        in.getShort(); // minor_version
+        in.getShort(); // major_version
+
+        int poolSize = Short.toUnsignedInt(in.getShort());
+        Map<Integer, Kind> annotationTypes = null; // constant pool index -> annotation it names
+        int annotationsAttribute = -1;
+        for (int i = 1; i < poolSize; i++) {
+            int tag = Byte.toUnsignedInt(in.get());
+            switch (tag) {
+                case 1: // Utf8
+                    int length = Short.toUnsignedInt(in.getShort());
+                    // Only type descriptors and the attribute name can match; other strings are not decoded
+                    if (length == RUNTIME_VISIBLE_ANNOTATIONS.length()
+                        || length > 0 && classFile[in.position()] == 'L') {
+                        String value = new String(classFile, in.position(), length, StandardCharsets.ISO_8859_1);
+                        Kind kind = ANNOTATIONS.get(value);
+                        if (kind != null) {
+                            if (annotationTypes == null) {
+                                annotationTypes = new HashMap<>();
+                            }
+                            annotationTypes.put(i, kind);
+                        } else if (value.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+                            annotationsAttribute = i;
+                        }
+                    }
+                    skip(in, length);
+                    break;
+                case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    skip(in, 4);
+                    break;
+                case 5: case 6: // Long and Double take two entries
+                    skip(in, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+        if (annotationTypes == null || annotationsAttribute < 0) {
+            return null;
+        }
+
+        skip(in, 6); // access_flags, this_class, super_class
+        skip(in, 2 * Short.toUnsignedInt(in.getShort())); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        int attributes = Short.toUnsignedInt(in.getShort());
+        for (int a = 0; a < attributes; a++) {
+            int name = Short.toUnsignedInt(in.getShort());
+            int length = in.getInt();
+            if (name != annotationsAttribute) {
+                skip(in, length);
+                continue;
+            }
+            int annotations = Short.toUnsignedInt(in.getShort());
+            for (int n = 0; n < annotations; n++) {
+                Kind kind = annotationTypes.get(Short.toUnsignedInt(in.getShort()));
+                if (kind != null) {
+                    return kind;
+                }
+                skipElementValuePairs(in);
+            }
+            return null;
+        }
+        return null;
+    }
+
+    private static void skipMembers(ByteBuffer in) {
+        int count = Short.toUnsignedInt(in.getShort());
+        for (int m = 0; m < count; m++) {
+            skip(in, 6); // access_flags, name_index, descriptor_index
+            int attributes = Short.toUnsignedInt(in.getShort());
+            for (int a = 0; a < attributes; a++) {
+                skip(in, 2);
+                skip(in, in.getInt());
+            }
+        }
+    }
+
+    private static void skipElementValuePairs(ByteBuffer in) {
+        int pairs = Short.toUnsignedInt(in.getShort());
+        for (int p = 0; p < pairs; p++) {
+            skip(in, 2); // element_name_index
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(ByteBuffer in) {
+        char tag = (char) in.get();
+        switch (tag) {
+            case 'e': // enum: type and constant name
+                skip(in, 4);
+                break;
+            case '@':
+                skip(in, 2);
+                skipElementValuePairs(in);
+                break;
+            case '[':
+                int values = Short.toUnsignedInt(in.getShort());
+                for (int v = 0; v < values; v++) {
+                    skipElementValue(in);
+                }
+                break;
+            default: // constants, strings and class literals
+                skip(in, 2);
+        }
+    }
+
+    private static void skip(ByteBuffer in, int bytes) {
+        if (bytes < 0 || bytes > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        in.position(in.position() + bytes);
+    }
+}
@@ -0,0 +1,78 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class loaders one SessionFactory's entity classes were loaded through. A generation belongs to
+ * that factory and is closed with it, which releases the JAR files its loaders hold open; it is never
+ * installed as a thread's context loader, so once the factory is gone nothing keeps its classes alive.
+ */
+final class ClassLoaderGeneration implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ClassLoaderGeneration.class);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final int number = COUNTER.incrementAndGet();
+    private final ClassLoader base;
+    private final List<ClassLoader> loaders = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param base parent of the first loader; the server's own loader, never a previous generation
+     */
+    ClassLoaderGeneration(ClassLoader base) {
+        this.base = base;
+    }
+
+    /**
+     * The loader entity classes are resolved through: the last one added, or the base when there is none
+     */
+    synchronized ClassLoader getClassLoader() {
+        return loaders.isEmpty() ? base : loaders.get(loaders.size() - 1);
+    }
+
+    /**
+     * Adds a loader, which must have the current {@link #getClassLoader()} as its parent
+     */
+    synchronized <T extends ClassLoader> T add(T loader) {
+        if (closed) {
+            throw new IllegalStateException("Class loader generation " + number + " is closed");
+        }
+        loaders.add(loader);
+        return loader;
+    }
+
+    synchronized int size() {
+        return loaders.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ClassLoader loader : loaders) {
+            if (loader instanceof Closeable) {
+                try {
+                    ((Closeable) loader).close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing class loader {}: {}", loader, e.getMessage());
+                }
+            }
+        }
+        loaders.clear();
+        LOG.debug("Closed class loader generation {}", number);
+    }
+
+    @Override
+    public String toString() {
+        return "generation " + number;
+    }
+}
@@ -0,0 +1,146 @@
+package com.querytester;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HikariCP pools by datasource (JDBC URL, user, password and driver). SessionFactories for the same
+ * datasource, e.g. with different entity packages or while one is rebuilt, share one pool, so the
+ * connections stay open across rebuilds. A pool is closed when the last factory using it is closed.
+ *
+ * <p>Pool settings come from the dbConfig of the factory that opens the pool: {@code poolSize},
+ * {@code poolMinIdle}, {@code connectionTimeoutMs}, {@code keepaliveMs}, {@code validationTimeoutMs}
+ * and {@code connectionTestQuery}.
+ */
+final class ConnectionPools {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPools.class);
+    static final int DEFAULT_MIN_IDLE = 2;
+    static final long DEFAULT_CONNECTION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    // Below the idle timeouts of common firewalls and of PostgreSQL/MySQL server defaults
+    static final long DEFAULT_KEEPALIVE_MS = TimeUnit.MINUTES.toMillis(5);
+    static final long DEFAULT_VALIDATION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * A pool, completed once it is open, and the factories using it
+     */
+    private static final class Pool {
+        final CompletableFuture<HikariDataSource> dataSource = new CompletableFuture<>();
+        int users;
+    }
+
+    private static final Map<List<String>, Pool> POOLS = new HashMap<>();
+
+    private ConnectionPools() {
+    }
+
+    /**
+     * The pool for this datasource, opened if no factory uses one yet. Call {@link #release} once per acquire.
+     * Opening connects to the database, so it happens outside the lock: only callers for the same
+     * datasource wait for it, and they all get the pool or the error that opening it failed with.
+     */
+    static HikariDataSource acquire(Map<String, String> dbConfig) {
+        List<String> key = key(dbConfig);
+        Pool pool;
+        boolean opener;
+        synchronized (ConnectionPools.class) {
+            pool = POOLS.get(key);
+            opener = pool == null;
+            if (opener) {
+                pool = new Pool();
+                POOLS.put(key, pool);
+            }
+            pool.users++;
+        }
+        if (opener) {
+            try {
+                HikariDataSource dataSource = new HikariDataSource(config(dbConfig));
+                LOG.info("Opened connection pool {} for {} as {}", dataSource.getPoolName(),
+                    dbConfig.get("url"), dbConfig.get("username"));
+                pool.dataSource.complete(dataSource);
+            } catch (RuntimeException | Error e) {
+                // The next acquire tries to open it again
+                synchronized (ConnectionPools.class) {
+                    POOLS.remove(key, pool);
+                }
+                pool.dataSource.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return pool.dataSource.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    static void release(HikariDataSource dataSource) {
+        synchronized (ConnectionPools.class) {
+            Pool pool = POOLS.values().stream().filter(p -> p.dataSource.getNow(null) == dataSource).findFirst().orElse(null);
+            if (pool == null || --pool.users > 0) {
+                return;
+            }
+            POOLS.values().remove(pool);
+        }
+        // Outside the lock: closing waits for connections still in use
+        LOG.info("Closing connection pool {}", dataSource.getPoolName());
+        dataSource.close();
+    }
+
+    static synchronized int size() {
+        return POOLS.size();
+    }
+
+    private static List<String> key(Map<String, String> dbConfig) {
+        return Arrays.asList(dbConfig.get("url"), dbConfig.get("username"), dbConfig.get("password"), dbConfig.get("driver"));
+    }
+
+    static HikariConfig config(Map<String, String> dbConfig) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("query-tester-" + DatasourceLimiter.datasourceKey(dbConfig));
+        config.setJdbcUrl(dbConfig.get("url"));
+        config.setUsername(dbConfig.get("username"));
+        config.setPassword(dbConfig.get("password"));
+        if (dbConfig.get("driver") != null && !dbConfig.get("driver").isEmpty()) {
+            config.setDriverClassName(dbConfig.get("driver"));
+        }
+        // No more connections than queries the server runs at once against the datasource
+        int poolSize = intSetting(dbConfig, "poolSize", DatasourceLimiter.getMaxConcurrent());
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(Math.min(poolSize, intSetting(dbConfig, "poolMinIdle", DEFAULT_MIN_IDLE)));
+        config.setConnectionTimeout(longSetting(dbConfig, "connectionTimeoutMs", DEFAULT_CONNECTION_TIMEOUT_MS));
+        config.setKeepaliveTime(longSetting(dbConfig, "keepaliveMs", DEFAULT_KEEPALIVE_MS));
+        config.setValidationTimeout(longSetting(dbConfig, "validationTimeoutMs", DEFAULT_VALIDATION_TIMEOUT_MS));
+        // Without a test query Hikari validates with Connection.isValid(), which JDBC4 drivers implement
+        if (dbConfig.get("connectionTestQuery") != null) {
+            config.setConnectionTestQuery(dbConfig.get("connectionTestQuery"));
+        }
+        return config;
+    }
+
+    private static int intSetting(Map<String, String> dbConfig, String name, int defaultValue) {
+        return (int) longSetting(dbConfig, name, defaultValue);
+    }
+
+    private static long longSetting(Map<String, String> dbConfig, String name, long defaultValue) {
+        String value = dbConfig.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid {} in dbConfig: {}. Using default: {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
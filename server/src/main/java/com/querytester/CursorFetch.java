@@ -0,0 +1,52 @@
+package com.querytester;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies each JDBC driver's rules for reading a result set through a server-side cursor
+ * instead of loading it into the driver's memory first.
+ */
+final class CursorFetch {
+    private static final Logger LOG = LoggerFactory.getLogger(CursorFetch.class);
+
+    private CursorFetch() {
+    }
+
+    /**
+     * Configures the query (and, where needed, the connection) for cursor reads of {@code fetchSize} rows.
+     * Must be called inside the transaction that will run the query.
+     */
+    static void prepare(Session session, Query<?> query, int fetchSize) {
+        String url = DatabaseKind.connectionUrl(session.getSessionFactory());
+        DatabaseKind kind = DatabaseKind.fromUrl(url);
+
+        switch (kind) {
+            case POSTGRESQL:
+                // PgJDBC only honours the fetch size with autocommit off; otherwise it reads every row up front
+                session.doWork(connection -> {
+                    if (connection.getAutoCommit()) {
+                        connection.setAutoCommit(false);
+                    }
+                });
+                query.setFetchSize(fetchSize);
+                break;
+            case MYSQL:
+                if (url.contains("useCursorFetch=true")) {
+                    // Server-side cursor: rows arrive fetchSize at a time
+                    query.setFetchSize(fetchSize);
+                } else {
+                    // Without cursor fetch, Connector/J streams row by row only for Integer.MIN_VALUE.
+                    // No other statement may run on the connection meanwhile, so lazy associations cannot load.
+                    LOG.info("MySQL streaming row by row; add useCursorFetch=true to the URL to allow lazy loading while reading");
+                    query.setFetchSize(Integer.MIN_VALUE);
+                }
+                break;
+            default:
+                query.setFetchSize(fetchSize);
+        }
+        LOG.debug("Cursor fetch prepared for {} with fetch size {}", kind, fetchSize);
+    }
+}
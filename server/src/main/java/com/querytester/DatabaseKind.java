@@ -0,0 +1,53 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+
+/**
+ * Database vendor, as far as driver-specific behaviour (cursors, pagination syntax) is concerned
+ */
+enum DatabaseKind {
+    POSTGRESQL,
+    MYSQL,
+    MARIADB,
+    H2,
+    ORACLE,
+    SQLSERVER,
+    OTHER;
+
+    static DatabaseKind fromUrl(String url) {
+        if (url == null) return OTHER;
+
+        String lower = url.toLowerCase();
+        if (lower.startsWith("jdbc:postgresql")) return POSTGRESQL;
+        if (lower.startsWith("jdbc:mysql")) return MYSQL;
+        if (lower.startsWith("jdbc:mariadb")) return MARIADB;
+        if (lower.startsWith("jdbc:h2")) return H2;
+        if (lower.startsWith("jdbc:oracle")) return ORACLE;
+        if (lower.startsWith("jdbc:sqlserver")) return SQLSERVER;
+
+        return OTHER;
+    }
+
+    /**
+     * Cheapest statement that round-trips to the server, or null when the dialect is unknown
+     */
+    String validationQuery() {
+        switch (this) {
+            case ORACLE:
+                return "SELECT 1 FROM DUAL";
+            case OTHER:
+                return null;
+            default:
+                return "SELECT 1";
+        }
+    }
+
+    static DatabaseKind of(SessionFactory sessionFactory) {
+        return fromUrl(connectionUrl(sessionFactory));
+    }
+
+    static String connectionUrl(SessionFactory sessionFactory) {
+        Object url = sessionFactory.getProperties().get("hibernate.connection.url");
+        return url != null ? url.toString() : null;
+    }
+}
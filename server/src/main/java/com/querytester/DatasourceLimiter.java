@@ -0,0 +1,78 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many queries run at the same time against one datasource (JDBC URL + user).
+ * With virtual threads the thread count no longer bounds concurrency, so this is what
+ * keeps a busy server from opening more statements than the database should see.
+ */
+final class DatasourceLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(DatasourceLimiter.class);
+    private static final Map<String, Semaphore> PERMITS = new ConcurrentHashMap<>();
+    // Half the platform workers, so one slow datasource leaves the other half to everyone else
+    private static volatile int maxConcurrent = 5;
+
+    private DatasourceLimiter() {
+    }
+
+    static void setMaxConcurrent(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Concurrency limit must be at least 1");
+        }
+        maxConcurrent = permits;
+        PERMITS.clear(); // Later acquisitions use semaphores with the new limit
+    }
+
+    static int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Blocks until the datasource has a free slot; close the returned permit to give it back
+     */
+    static Permit acquire(Map<String, String> dbConfig) throws InterruptedException {
+        String key = datasourceKey(dbConfig);
+        Semaphore semaphore = PERMITS.computeIfAbsent(key, k -> new Semaphore(maxConcurrent, true));
+        if (!semaphore.tryAcquire()) {
+            LOG.info("Datasource {} at its limit of {} concurrent queries, waiting", key, maxConcurrent);
+            Deadline deadline = Deadline.current();
+            if (deadline == null) {
+                semaphore.acquire();
+            } else if (!semaphore.tryAcquire(deadline.remainingMs(), TimeUnit.MILLISECONDS)) {
+                throw deadline.exceeded();
+            }
+        }
+        return new Permit(semaphore);
+    }
+
+    static String datasourceKey(Map<String, String> dbConfig) {
+        if (dbConfig == null) {
+            return "default";
+        }
+        return dbConfig.get("url") + "|" + dbConfig.get("username");
+    }
+
+    static final class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private boolean released;
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.querytester;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of one request, counted from when its line was read. The worker handling the request
+ * binds the deadline to its thread; each stage marks the phase it enters, waits no longer than the
+ * budget left, and the JDBC statement gets the rest as its timeout. When the budget runs out, the
+ * phase that was running is what the response reports.
+ */
+final class Deadline {
+    // JDBC timeout of requests without a budget of their own
+    static final int DEFAULT_STATEMENT_TIMEOUT_S = 30;
+
+    enum Phase {
+        QUEUE,      // Waiting for a worker
+        INIT,       // Waiting for a datasource slot and the SessionFactory
+        CONNECTION, // Waiting for a pooled connection
+        EXECUTION,  // Running the statement, and reading rows through a cursor
+        CONVERSION, // Turning a fetched result into response rows
+        RESPONSE    // Serializing and sending the response
+    }
+
+    /**
+     * The budget ran out; thrown from waits and checks between stages
+     */
+    static final class ExceededException extends RuntimeException {
+        final Phase phase;
+
+        ExceededException(Phase phase, long timeoutMs) {
+            super("Request exceeded its " + timeoutMs + " ms deadline during " + phase);
+            this.phase = phase;
+        }
+    }
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long timeoutMs;
+    private final long expiresAtNanos;
+    private volatile Phase phase = Phase.QUEUE;
+
+    private Deadline(long startNanos, long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        this.expiresAtNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    /**
+     * The deadline of a request read at {@code startNanos} ({@link System#nanoTime()}), or null without a budget
+     */
+    static Deadline of(long startNanos, long timeoutMs) {
+        return timeoutMs > 0 ? new Deadline(startNanos, timeoutMs) : null;
+    }
+
+    /**
+     * Binds {@code deadline} to this thread, or clears the binding when it is null
+     */
+    static void bind(Deadline deadline) {
+        if (deadline != null) {
+            CURRENT.set(deadline);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks the phase this thread's request is entering, failing if its budget is already spent
+     */
+    static void enter(Phase phase) {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.phase = phase;
+            deadline.check();
+        }
+    }
+
+    /**
+     * Fails if this thread's request is out of time; cheap enough to call for every row
+     */
+    static void checkCurrent() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check();
+        }
+    }
+
+    /**
+     * The phase this thread's request ran out of time in, or null if it still has time or has no deadline
+     */
+    static Phase expiredPhase() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null && deadline.isExpired() ? deadline.phase : null;
+    }
+
+    /**
+     * JDBC timeout for the next statement: what is left of the budget, rounded up to whole seconds
+     */
+    static int statementTimeoutSeconds() {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return DEFAULT_STATEMENT_TIMEOUT_S;
+        }
+        long remaining = deadline.remainingMs();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+    }
+
+    void check() {
+        if (isExpired()) {
+            throw exceeded();
+        }
+    }
+
+    boolean isExpired() {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    long remainingMs() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    Phase getPhase() {
+        return phase;
+    }
+
+    ExceededException exceeded() {
+        return new ExceededException(phase, timeoutMs);
+    }
+}
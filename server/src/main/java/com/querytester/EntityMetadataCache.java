@@ -0,0 +1,33 @@
+package com.querytester;
+
+import java.util.function.Function;
+
+/**
+ * Per-class metadata computed once and read without locking. Values are held by the Class itself
+ * (through {@link ClassValue}), so a cache never keeps an entity class loader alive. Each SessionFactory
+ * loads its entities in its own {@link ClassLoaderGeneration}, so closing a factory makes the values of its
+ * classes unreachable together with them, while the values of other factories' classes stay cached.
+ */
+final class EntityMetadataCache<T> {
+    private final ClassValue<T> values;
+
+    private EntityMetadataCache(Function<Class<?>, T> compute) {
+        this.values = new ClassValue<T>() {
+            @Override
+            protected T computeValue(Class<?> type) {
+                return compute.apply(type);
+            }
+        };
+    }
+
+    /**
+     * Creates a cache whose values live as long as the classes they describe; meant for static fields
+     */
+    static <T> EntityMetadataCache<T> create(Function<Class<?>, T> compute) {
+        return new EntityMetadataCache<>(compute);
+    }
+
+    T get(Class<?> type) {
+        return values.get(type);
+    }
+}
@@ -1,154 +1,199 @@
 package com.querytester;
 
-import org.reflections.Reflections;
-import org.reflections.util.ConfigurationBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.persistence.Entity;
-import javax.persistence.Embeddable;
-import javax.persistence.MappedSuperclass;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 public class EntityScanner {
     private static final Logger LOG = LoggerFactory.getLogger(EntityScanner.class);
-    private static URLClassLoader entityClassLoader;
+    // Common locations for compilation directories
+    private static final String[] OUTPUT_DIRECTORIES = {"target/classes", // Standard Maven
+            "build/classes/java/main",     // Standard Gradle
+            "out/production/classes",      // IntelliJ IDEA
+            "bin"                          // Eclipse
+    };
+    // Never hold modules of their own
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of("src", "target", "build", "out", "bin", "node_modules");
+    private static final int MAX_MODULE_DEPTH = 4;
+
+    // Scan results kept between runs; null scans from scratch every time
+    private static volatile ScanCache scanCache;
+
+    static void setScanCache(ScanCache cache) {
+        scanCache = cache;
+    }
 
     /**
      * Scans for entities from a JAR, directory or persistence.xml
      * 
-     * @param entityLibPath  Path to JAR, directory or persistence.xml
+     * @param entityLibPath  Path to JAR, directory or persistence.xml; several JARs and directories
+     *                       can be given separated by {@link File#pathSeparator}, like a classpath
      * @param entityPackages Packages to be scanned
+     * @param generation     Receives the class loaders the entities are loaded through
      * @return Set with found entity classes
      */
-    public static Set<Class<?>> scanEntities(String entityLibPath, String[] entityPackages) {
-        Set<Class<?>> entities = new HashSet<>();
+    public static Set<Class<?>> scanEntities(String entityLibPath, String[] entityPackages, ClassLoaderGeneration generation) {
+        return scanEntities(entityLibPath, entityPackages, Collections.emptyList(), generation);
+    }
+
+    /**
+     * Same as {@link #scanEntities(String, String[], ClassLoaderGeneration)}, also scanning
+     * {@code projectDirectories}, e.g. the output directories of every module of the project. All roots
+     * are indexed in parallel and merged into one set; a class found in more than one root is taken
+     * from the first.
+     */
+    public static Set<Class<?>> scanEntities(String entityLibPath, String[] entityPackages, List<File> projectDirectories,
+                                             ClassLoaderGeneration generation) {
+        List<String> paths = splitPaths(entityLibPath);
 
-        if (entityLibPath == null || entityLibPath.isEmpty()) {
+        // Checks if it's a persistence.xml file
+        if (paths.size() == 1 && isPersistenceXml(paths.get(0))) {
+            if (!new File(paths.get(0)).exists()) {
+                LOG.error("File not found: {}", paths.get(0));
+                return new HashSet<>();
+            }
+            LOG.info("Detected persistence.xml file: {}", paths.get(0));
+            return scanFromPersistenceXml(paths.get(0), entityPackages, generation);
+        }
+
+        if (paths.isEmpty()) {
             LOG.warn("Entity path not provided, scanning only classpath");
-            return scanWithReflections(null, entityPackages);
         }
 
-        File sourceFile = new File(entityLibPath);
-        if (!sourceFile.exists()) {
-            LOG.error("File not found: {}", entityLibPath);
-            return entities;
+        List<File> roots = new ArrayList<>();
+        for (String path : paths) {
+            if (isPersistenceXml(path)) {
+                LOG.warn("persistence.xml must be the only entity path, ignoring: {}", path);
+                continue;
+            }
+            File file = new File(path);
+            if (!file.exists()) {
+                LOG.error("File not found: {}", path);
+                continue;
+            }
+            roots.add(file);
         }
+        roots.addAll(projectDirectories);
 
-        // Checks if it's a persistence.xml file
-        if (entityLibPath.toLowerCase().endsWith("persistence.xml")) {
-            LOG.info("Detected persistence.xml file: {}", entityLibPath);
-            return scanFromPersistenceXml(entityLibPath, entityPackages);
+        // Otherwise, index the JARs and directories
+        return scanClassFiles(roots, paths.isEmpty(), entityPackages, generation);
+    }
+
+    /**
+     * JARs and directories the entities of a configuration are read from, not counting the classpath
+     */
+    static List<File> entityRoots(String entityLibPath, List<File> projectDirectories) {
+        List<File> roots = new ArrayList<>();
+        List<String> paths = splitPaths(entityLibPath);
+        if (paths.size() == 1 && isPersistenceXml(paths.get(0))) {
+            File projectRoot = findProjectRoot(new File(paths.get(0)));
+            if (projectRoot != null) {
+                roots.addAll(findClassesDirectories(projectRoot));
+            }
+            return roots;
+        }
+        for (String path : paths) {
+            if (!isPersistenceXml(path)) {
+                roots.add(new File(path));
+            }
         }
+        roots.addAll(projectDirectories);
+        return roots;
+    }
 
-        // Otherwise, use Reflections as it was already doing
-        return scanWithReflections(entityLibPath, entityPackages);
+    static boolean isPersistenceXml(String path) {
+        return path != null && path.toLowerCase().endsWith("persistence.xml");
     }
 
-    private static Set<Class<?>> scanWithReflections(String entityLibPath, String[] entityPackages) {
-        Set<Class<?>> entities = new HashSet<>();
-        try {
-            URL[] urls;
-            ClassLoader classLoader;
-
-            if (entityLibPath != null && !entityLibPath.isEmpty()) {
-                File file = new File(entityLibPath);
-                if (!file.exists()) {
-                    LOG.error("File not found: {}", entityLibPath);
-                    return entities;
+    static List<String> splitPaths(String entityLibPath) {
+        List<String> paths = new ArrayList<>();
+        if (entityLibPath != null) {
+            for (String path : entityLibPath.split(Pattern.quote(File.pathSeparator))) {
+                if (!path.trim().isEmpty()) {
+                    paths.add(path.trim());
                 }
-                urls = new URL[]{file.toURI().toURL()};
-
-                // Store the ClassLoader in a static variable so it can be accessed later
-                entityClassLoader = new URLClassLoader(urls, Thread.currentThread().getContextClassLoader());
-                classLoader = entityClassLoader;
+            }
+        }
+        return paths;
+    }
 
-                // Set the ClassLoader in the current thread so Hibernate can use it
-                Thread.currentThread().setContextClassLoader(entityClassLoader);
+    /**
+     * Indexes the JARs and directories, plus the classpath when asked, from their class files in one
+     * pass over all packages, then loads only the annotated classes
+     */
+    private static Set<Class<?>> scanClassFiles(List<File> roots, boolean includeClasspath, String[] entityPackages,
+                                                ClassLoaderGeneration generation) {
+        Set<Class<?>> entities = new HashSet<>();
+        try {
+            List<File> allRoots = new ArrayList<>();
+            Map<File, FatJar> fatJars = Collections.emptyMap();
 
-                if (file.isDirectory()) {
-                    LOG.info("Scanning entities from directory: {}", entityLibPath);
-                } else {
-                    LOG.info("Scanning entities from JAR: {}", entityLibPath);
-                }
-            } else {
-                classLoader = Thread.currentThread().getContextClassLoader();
+            if (includeClasspath) {
+                allRoots.addAll(classpathRoots(generation.getClassLoader()));
+                LOG.info("Scanning entities in system classpath");
+            }
 
-                // If in the classpath, make sure you are using a URLClassLoader
-                if (classLoader instanceof URLClassLoader) {
-                    urls = ((URLClassLoader) classLoader).getURLs();
-                } else {
-                    LOG.warn("ClassLoader is not URLClassLoader, there may be class loading issues");
-                    urls = new URL[0];
+            if (!roots.isEmpty()) {
+                for (File root : roots) {
+                    if (root.isDirectory()) {
+                        LOG.info("Scanning entities from directory: {}", root);
+                    } else {
+                        LOG.info("Scanning entities from JAR: {}", root);
+                    }
                 }
 
-                LOG.info("Scanning entities in system classpath");
+                // Loaders belong to the generation, which is closed with the SessionFactory
+                fatJars = addClassLoaders(roots, generation);
+                allRoots.addAll(roots);
             }
 
-            ConfigurationBuilder config = new ConfigurationBuilder().setUrls(urls).setClassLoaders(new ClassLoader[]{classLoader});
+            if (allRoots.isEmpty()) {
+                LOG.warn("No entity JAR or directory to scan");
+                return entities;
+            }
 
             if (entityPackages != null && entityPackages.length > 0) {
                 LOG.info("Scanning specific packages: {}", (Object) entityPackages);
-
-                for (String packageName : entityPackages) {
-                    LOG.info("Starting scan of package: {}", packageName);
-
-                    Reflections reflections = new Reflections(config.forPackages(packageName));
-                    Set<Class<?>> packageEntities = reflections.getTypesAnnotatedWith(Entity.class);
-                    Set<Class<?>> embeddables = reflections.getTypesAnnotatedWith(Embeddable.class);
-                    Set<Class<?>> mappedSuperclasses = reflections.getTypesAnnotatedWith(MappedSuperclass.class);
-
-                    LOG.info("Found {} entities, {} embeddables and {} mapped superclasses in package {}", packageEntities.size(), embeddables.size(), mappedSuperclasses.size(), packageName);
-
-                    for (Class<?> entity : packageEntities) {
-                        String entityPackage = entity.getPackage().getName();
-                        if (entityPackage.startsWith(packageName)) {
-                            entities.add(entity);
-                            LOG.debug("Added entity: {}", entity.getName());
-                        }
-                    }
-
-                    // Also adds embeddables and mapped superclasses
-                    for (Class<?> embeddable : embeddables) {
-                        String packageName2 = embeddable.getPackage().getName();
-                        if (packageName2.startsWith(packageName)) {
-                            entities.add(embeddable);
-                            LOG.debug("Added embeddable: {}", embeddable.getName());
-                        }
-                    }
-
-                    for (Class<?> mappedSuperclass : mappedSuperclasses) {
-                        String packageName3 = mappedSuperclass.getPackage().getName();
-                        if (packageName3.startsWith(packageName)) {
-                            entities.add(mappedSuperclass);
-                            LOG.debug("Added mapped superclass: {}", mappedSuperclass.getName());
-                        }
-                    }
-                }
             } else {
                 LOG.info("No package specified, scanning all available entities");
-                Reflections reflections = new Reflections(config);
-                Set<Class<?>> allEntities = reflections.getTypesAnnotatedWith(Entity.class);
-                Set<Class<?>> allEmbeddables = reflections.getTypesAnnotatedWith(Embeddable.class);
-                Set<Class<?>> allMappedSuperclasses = reflections.getTypesAnnotatedWith(MappedSuperclass.class);
-
-                entities.addAll(allEntities);
-                entities.addAll(allEmbeddables);
-                entities.addAll(allMappedSuperclasses);
+            }
 
-                LOG.info("Found {} entities, {} embeddables and {} mapped superclasses in all packages", allEntities.size(), allEmbeddables.size(), allMappedSuperclasses.size());
+            long start = System.currentTimeMillis();
+            // Spring Boot JARs are scanned from the mappings their loaders use, so each is mapped once
+            ClassIndex index = ClassIndex.scan(allRoots, entityPackages, scanCache, fatJars);
+            LOG.info("Found {} entities, {} embeddables and {} mapped superclasses in {} roots, {} class files read ({} ms)",
+                index.count(ClassIndex.Kind.ENTITY), index.count(ClassIndex.Kind.EMBEDDABLE),
+                index.count(ClassIndex.Kind.MAPPED_SUPERCLASS), allRoots.size(), index.classFilesRead(),
+                System.currentTimeMillis() - start);
+
+            ClassLoader classLoader = generation.getClassLoader();
+            for (Map.Entry<String, ClassIndex.Kind> match : index.classes().entrySet()) {
+                try {
+                    // Not initialized here; Hibernate does that when it needs the class
+                    entities.add(Class.forName(match.getKey(), false, classLoader));
+                    LOG.debug("Added {}: {}", match.getValue(), match.getKey());
+                } catch (ClassNotFoundException | LinkageError e) {
+                    LOG.warn("Could not load class: {}", match.getKey(), e);
+                }
             }
 
             LOG.info("Total classes found: {}", entities.size());
@@ -159,7 +204,61 @@ public class EntityScanner {
         }
     }
 
-    private static Set<Class<?>> scanFromPersistenceXml(String persistenceXmlPath, String[] entityPackages) {
+    /**
+     * Adds loaders for the roots, searched in order: plain JARs and directories through a URLClassLoader,
+     * Spring Boot JARs through a {@link FatJarClassLoader}. Each loader is the parent of the next,
+     * so with parent-first delegation an earlier root wins, as in the scan. Returns the Spring Boot JARs
+     * opened for the loaders, by absolute file.
+     */
+    private static Map<File, FatJar> addClassLoaders(List<File> roots, ClassLoaderGeneration generation) throws IOException {
+        Map<File, FatJar> fatJars = new HashMap<>();
+        List<URL> urls = new ArrayList<>();
+        for (File root : roots) {
+            if (root.isFile() && ClassIndex.isArchive(root) && FatJar.isFatJar(root)) {
+                if (!urls.isEmpty()) {
+                    generation.add(new URLClassLoader(urls.toArray(new URL[0]), generation.getClassLoader()));
+                    urls.clear();
+                }
+                FatJar fatJar = FatJar.open(root);
+                fatJars.put(root.getAbsoluteFile(), fatJar);
+                generation.add(new FatJarClassLoader(fatJar, generation.getClassLoader()));
+            } else {
+                urls.add(root.toURI().toURL());
+            }
+        }
+        if (!urls.isEmpty()) {
+            generation.add(new URLClassLoader(urls.toArray(new URL[0]), generation.getClassLoader()));
+        }
+        return fatJars;
+    }
+
+    /**
+     * JARs and directories of the given loader, or of {@code java.class.path} when it is not a URLClassLoader
+     */
+    private static List<File> classpathRoots(ClassLoader classLoader) {
+        List<File> roots = new ArrayList<>();
+        if (classLoader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                try {
+                    if ("file".equals(url.getProtocol())) {
+                        roots.add(new File(url.toURI()));
+                    }
+                } catch (URISyntaxException e) {
+                    LOG.warn("Ignoring classpath entry {}: {}", url, e.getMessage());
+                }
+            }
+        } else {
+            for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                if (!entry.isEmpty()) {
+                    roots.add(new File(entry));
+                }
+            }
+        }
+        return roots;
+    }
+
+    private static Set<Class<?>> scanFromPersistenceXml(String persistenceXmlPath, String[] entityPackages,
+                                                        ClassLoaderGeneration generation) {
         Set<Class<?>> entities = new HashSet<>();
 
         try {
@@ -210,23 +309,25 @@ public class EntityScanner {
 
             LOG.info("Project root determined as: {}", projectRoot.getAbsolutePath());
 
-            // Searches for the project's compiled classes directory
-            File classesDir = findClassesDirectory(projectRoot);
+            // Searches for the compiled classes of every module in the project
+            List<File> classesDirs = findClassesDirectories(projectRoot);
 
-            if (classesDir != null && classesDir.exists()) {
-                LOG.info("Classes directory found: {}", classesDir.getAbsolutePath());
+            if (!classesDirs.isEmpty()) {
+                LOG.info("Classes directories found: {}", classesDirs);
 
-                // Configures ClassLoader with the classes directory
-                URL[] urls = new URL[]{classesDir.toURI().toURL()};
-                entityClassLoader = new URLClassLoader(urls, Thread.currentThread().getContextClassLoader());
-                Thread.currentThread().setContextClassLoader(entityClassLoader);
+                // Configures ClassLoader with the classes directories
+                URL[] urls = new URL[classesDirs.size()];
+                for (int i = 0; i < urls.length; i++) {
+                    urls[i] = classesDirs.get(i).toURI().toURL();
+                }
+                ClassLoader projectClassLoader = generation.add(new URLClassLoader(urls, generation.getClassLoader()));
 
                 if (entityClassNames.isEmpty()) {
                     LOG.warn("No classes found in persistence.xml, scanning project packages");
 
                     // If there are no packages to scan, scan the project package
-                    Set<Class<?>> packageEntities = scanWithReflections(
-                            classesDir.getAbsolutePath(), new String[]{projectRoot.getName()}
+                    Set<Class<?>> packageEntities = scanClassFiles(
+                            classesDirs, false, new String[]{projectRoot.getName()}, generation
                     );
 
                     entities.addAll(packageEntities);
@@ -235,7 +336,7 @@ public class EntityScanner {
                     // Loads entities explicitly listed in persistence.xml
                     for (String className : entityClassNames) {
                         try {
-                            Class<?> clazz = entityClassLoader.loadClass(className);
+                            Class<?> clazz = projectClassLoader.loadClass(className);
                             entities.add(clazz);
                             LOG.debug("Entity loaded: {}", className);
                         } catch (ClassNotFoundException e) {
@@ -244,15 +345,13 @@ public class EntityScanner {
                     }
                 }
 
-                // Scans additional packages using Reflections if there are packages to scan
+                // Scans additional packages if there are packages to scan
                 if (!packagesToScan.isEmpty()) {
                     String[] packagesArray = packagesToScan.toArray(new String[0]);
                     LOG.info("Scanning packages from persistence.xml: {}", (Object) packagesArray);
 
-                    // Uses scanWithReflections passing the classes directory and packages to be scanned
-                    Set<Class<?>> packageEntities = scanWithReflections(
-                            classesDir.getAbsolutePath(), packagesArray
-                    );
+                    // Uses scanClassFiles passing the classes directories and packages to be scanned
+                    Set<Class<?>> packageEntities = scanClassFiles(classesDirs, false, packagesArray, generation);
 
                     entities.addAll(packageEntities);
                 }
@@ -283,39 +382,39 @@ public class EntityScanner {
         return null;
     }
 
-    private static File findClassesDirectory(File projectRoot) {
-        // Common locations for compilation directories
-        String[] possiblePaths = {"target/classes",              // Standard Maven
-                "build/classes/java/main",     // Standard Gradle
-                "out/production/classes",      // IntelliJ IDEA
-                "bin"                          // Eclipse
-        };
-
-        for (String path : possiblePaths) {
-            File dir = new File(projectRoot, path);
-            if (dir.exists() && dir.isDirectory()) {
-                return dir;
+    /**
+     * Compiled classes directory of the project and of each of its modules, looked up in
+     * {@code projectRoot} and the directories below it
+     */
+    static List<File> findClassesDirectories(File projectRoot) {
+        List<File> found = new ArrayList<>();
+        collectClassesDirectories(projectRoot, 0, found);
+        return found;
+    }
+
+    private static void collectClassesDirectories(File dir, int depth, List<File> found) {
+        for (String path : OUTPUT_DIRECTORIES) {
+            File classesDir = new File(dir, path);
+            if (classesDir.isDirectory()) {
+                found.add(classesDir);
+                break;
             }
         }
+        if (depth >= MAX_MODULE_DEPTH) {
+            return;
+        }
 
-        // Recursively searches in subdirectories
-        File[] subdirs = projectRoot.listFiles(File::isDirectory);
-        if (subdirs != null) {
-            for (File subdir : subdirs) {
-                if (subdir.getName().equals("target") || subdir.getName().equals("build") || subdir.getName().equals("out") || subdir.getName().equals("bin")) {
-
-                    File classesDir = findClassesDirectory(subdir);
-                    if (classesDir != null) {
-                        return classesDir;
-                    }
-                }
+        // Modules can sit in plain folders (e.g. modules/billing), so every non-output subdirectory is visited
+        File[] subdirs = dir.listFiles(File::isDirectory);
+        if (subdirs == null) {
+            return;
+        }
+        Arrays.sort(subdirs);
+        for (File subdir : subdirs) {
+            String name = subdir.getName();
+            if (!name.startsWith(".") && !SKIPPED_DIRECTORIES.contains(name)) {
+                collectClassesDirectories(subdir, depth + 1, found);
             }
         }
-
-        return null;
-    }
-
-    public static ClassLoader getEntityClassLoader() {
-        return entityClassLoader != null ? entityClassLoader : Thread.currentThread().getContextClassLoader();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,262 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches the JARs and class directories a configuration's entities come from, and reports the
+ * configuration once its entities may have changed: a class file in its scanned packages was written
+ * or deleted, or a JAR was replaced. Any class counts, not only mapped ones, since entities depend on
+ * enums, converters, embedded value types and base classes that carry no mapping of their own. Events are debounced, so a compile that writes
+ * hundreds of files produces one report after the output has been quiet for the debounce period.
+ */
+final class EntityWatcher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityWatcher.class);
+    private static final long MISSING_ROOT_POLL_MS = 2000;
+
+    /**
+     * What one configuration watches
+     */
+    private static final class Watch {
+        final List<Path> roots;
+        final List<String> packagePaths;
+
+        Watch(List<Path> roots, List<String> packagePaths) {
+            this.roots = roots;
+            this.packagePaths = packagePaths;
+        }
+    }
+
+    private final WatchService watchService;
+    private final long debounceMs;
+    private final Consumer<SessionFactoryRegistry.FactoryKey> onChange;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<SessionFactoryRegistry.FactoryKey, Watch> watches = new HashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private final Set<Path> missingRoots = new HashSet<>();
+    private final Set<SessionFactoryRegistry.FactoryKey> pending = new LinkedHashSet<>();
+    private ScheduledFuture<?> flush;
+
+    EntityWatcher(long debounceMs, Consumer<SessionFactoryRegistry.FactoryKey> onChange) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.debounceMs = debounceMs;
+        this.onChange = onChange;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "entity-watcher-debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::checkMissingRoots,
+            MISSING_ROOT_POLL_MS, MISSING_ROOT_POLL_MS, TimeUnit.MILLISECONDS);
+        Thread pollThread = new Thread(this::pollEvents, "entity-watcher");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * Starts watching {@code roots} for the configuration, replacing what it watched before.
+     * {@code entityPackages} are the packages its entities are scanned from; every package when empty.
+     */
+    synchronized void watch(SessionFactoryRegistry.FactoryKey key, List<File> roots, String[] entityPackages) {
+        List<Path> paths = new ArrayList<>();
+        for (File root : roots) {
+            Path path = root.toPath().toAbsolutePath().normalize();
+            paths.add(path);
+            register(path);
+        }
+        watches.put(key, new Watch(paths, ClassIndex.packagePaths(entityPackages)));
+        LOG.info("Watching {} entity roots for {}", paths.size(), key);
+    }
+
+    synchronized void unwatch(SessionFactoryRegistry.FactoryKey key) {
+        watches.remove(key);
+        pending.remove(key);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing watch service: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Directory roots are watched with all their subdirectories (watches are not recursive);
+     * a JAR through its parent directory
+     */
+    private void register(Path root) {
+        try {
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> tree = Files.walk(root)) {
+                    tree.filter(Files::isDirectory).forEach(this::registerDirectory);
+                }
+            } else if (Files.isRegularFile(root) && root.getParent() != null) {
+                registerDirectory(root.getParent());
+            } else {
+                // Not there yet, e.g. deleted by a clean build; polled until it comes back
+                missingRoots.add(root);
+                return;
+            }
+            missingRoots.remove(root);
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warn("Could not watch {}: {}", root, e.getMessage());
+            missingRoots.add(root);
+        }
+    }
+
+    private void registerDirectory(Path directory) {
+        if (!watchedDirectories.add(directory)) {
+            return;
+        }
+        try {
+            WatchKey watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(watchKey, directory);
+        } catch (NoSuchFileException e) {
+            watchedDirectories.remove(directory);
+        } catch (IOException e) {
+            watchedDirectories.remove(directory);
+            LOG.warn("Could not watch {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void pollEvents() {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            synchronized (this) {
+                Path directory = directories.get(watchKey);
+                if (directory != null) {
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost; anything under this directory may have changed
+                            changed(directory, true);
+                            continue;
+                        }
+                        Path path = directory.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                            // New package directory: watch it and look at what the compiler already put there
+                            register(path);
+                            changedTree(path);
+                        } else {
+                            changed(path, false);
+                        }
+                    }
+                }
+                if (!watchKey.reset()) {
+                    // The directory is gone
+                    directories.remove(watchKey);
+                    watchedDirectories.remove(directory);
+                    if (directory != null) {
+                        for (Watch watch : watches.values()) {
+                            if (watch.roots.contains(directory)) {
+                                missingRoots.add(directory);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the configurations whose entities are affected by a change to {@code path}
+     */
+    private void changed(Path path, boolean directory) {
+        for (Map.Entry<SessionFactoryRegistry.FactoryKey, Watch> entry : watches.entrySet()) {
+            Watch watch = entry.getValue();
+            for (Path root : watch.roots) {
+                if (affects(watch, root, path, directory)) {
+                    schedule(entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    private void changedTree(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile).forEach(file -> changed(file, false));
+        } catch (IOException | UncheckedIOException e) {
+            changed(directory, true);
+        }
+    }
+
+    private static boolean affects(Watch watch, Path root, Path path, boolean directory) {
+        if (path.equals(root)) {
+            return true; // A replaced JAR, or the root directory itself
+        }
+        if (!path.startsWith(root) || Files.isRegularFile(root)) {
+            return false;
+        }
+        if (directory) {
+            return true;
+        }
+        String resource = root.relativize(path).toString().replace(File.separatorChar, '/');
+        return resource.endsWith(".class") && ClassIndex.accepts(resource, watch.packagePaths);
+    }
+
+    private void schedule(SessionFactoryRegistry.FactoryKey key) {
+        pending.add(key);
+        if (flush != null) {
+            flush.cancel(false);
+        }
+        flush = scheduler.schedule(this::flush, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<SessionFactoryRegistry.FactoryKey> changed;
+        synchronized (this) {
+            changed = new ArrayList<>(pending);
+            pending.clear();
+            flush = null;
+        }
+        for (SessionFactoryRegistry.FactoryKey key : changed) {
+            LOG.info("Entity classes changed for {}", key);
+            try {
+                onChange.accept(key);
+            } catch (RuntimeException e) {
+                LOG.warn("Error reloading entities for {}: {}", key, e.getMessage(), e);
+            }
+        }
+    }
+
+    private synchronized void checkMissingRoots() {
+        for (Path root : new ArrayList<>(missingRoots)) {
+            if (Files.exists(root)) {
+                LOG.info("Entity root is back: {}", root);
+                register(root);
+                changed(root, true);
+            }
+        }
+    }
+}
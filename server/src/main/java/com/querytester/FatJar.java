@@ -0,0 +1,151 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A Spring Boot executable JAR (or WAR): application classes under {@code BOOT-INF/classes/} and
+ * dependencies as nested JARs under {@code BOOT-INF/lib/}, or wherever the manifest's
+ * {@code Spring-Boot-Classes}/{@code Spring-Boot-Lib} point. Everything is read from the mapped
+ * outer archive; nothing is extracted.
+ */
+final class FatJar {
+    private static final Logger LOG = LoggerFactory.getLogger(FatJar.class);
+    private static final String DEFAULT_CLASSES = "BOOT-INF/classes/";
+    private static final String DEFAULT_LIB = "BOOT-INF/lib/";
+
+    /**
+     * A nested dependency JAR
+     */
+    static final class Library {
+        final String name;
+        final MappedZip archive;
+
+        private Library(String name, MappedZip archive) {
+            this.name = name;
+            this.archive = archive;
+        }
+    }
+
+    private final File file;
+    private final MappedZip archive;
+    private final String classesPrefix;
+    private final List<Library> libraries;
+
+    private FatJar(File file, MappedZip archive, String classesPrefix, List<Library> libraries) {
+        this.file = file;
+        this.archive = archive;
+        this.classesPrefix = classesPrefix;
+        this.libraries = libraries;
+    }
+
+    /**
+     * Whether an open JAR has the Spring Boot layout
+     */
+    static boolean isFatJar(JarFile jar) throws IOException {
+        Manifest manifest = jar.getManifest();
+        if (manifest != null && manifest.getMainAttributes().getValue("Spring-Boot-Classes") != null) {
+            return true;
+        }
+        return jar.getEntry(DEFAULT_CLASSES) != null;
+    }
+
+    static boolean isFatJar(File file) {
+        try (JarFile jar = new JarFile(file)) {
+            return isFatJar(jar);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static FatJar open(File file) throws IOException {
+        MappedZip archive = MappedZip.map(file);
+
+        String classesPrefix = DEFAULT_CLASSES;
+        String libPrefix = DEFAULT_LIB;
+        MappedZip.Entry manifestEntry = archive.get(JarFile.MANIFEST_NAME);
+        if (manifestEntry != null) {
+            Attributes attributes = new Manifest(new ByteArrayInputStream(archive.read(manifestEntry))).getMainAttributes();
+            classesPrefix = directory(attributes.getValue("Spring-Boot-Classes"), DEFAULT_CLASSES);
+            libPrefix = directory(attributes.getValue("Spring-Boot-Lib"), DEFAULT_LIB);
+        }
+
+        List<Library> libraries = new ArrayList<>();
+        for (MappedZip.Entry entry : archive.entries()) {
+            if (entry.name.startsWith(libPrefix) && entry.name.endsWith(".jar")) {
+                try {
+                    libraries.add(new Library(entry.name, archive.nested(entry)));
+                } catch (IOException e) {
+                    LOG.warn("Skipping nested JAR {} in {}: {}", entry.name, file, e.getMessage());
+                }
+            }
+        }
+        LOG.info("Opened Spring Boot JAR {} with {} nested libraries", file, libraries.size());
+        return new FatJar(file, archive, classesPrefix, libraries);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Application classes and resources, named without the {@code BOOT-INF/classes/} prefix
+     */
+    List<MappedZip.Entry> classEntries() {
+        List<MappedZip.Entry> result = new ArrayList<>();
+        for (MappedZip.Entry entry : archive.entries()) {
+            if (entry.name.startsWith(classesPrefix) && entry.name.length() > classesPrefix.length()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    String resourceName(MappedZip.Entry classEntry) {
+        return classEntry.name.substring(classesPrefix.length());
+    }
+
+    MappedZip getArchive() {
+        return archive;
+    }
+
+    List<Library> getLibraries() {
+        return Collections.unmodifiableList(libraries);
+    }
+
+    /**
+     * Content of a class or resource, looked up like the Spring Boot launcher does: application
+     * classes first, then the libraries in archive order. Null when none has it.
+     */
+    byte[] read(String resource) throws IOException {
+        MappedZip.Entry entry = archive.get(classesPrefix + resource);
+        if (entry != null) {
+            return archive.read(entry);
+        }
+        for (Library library : libraries) {
+            entry = library.archive.get(resource);
+            if (entry != null) {
+                return library.archive.read(entry);
+            }
+        }
+        return null;
+    }
+
+    private static String directory(String value, String defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String trimmed = value.trim();
+        return trimmed.endsWith("/") ? trimmed : trimmed + "/";
+    }
+}
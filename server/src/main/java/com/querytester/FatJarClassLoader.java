@@ -0,0 +1,67 @@
+package com.querytester;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads classes from a {@link FatJar} in place. Delegates to the parent first, like the URLClassLoader
+ * used for plain JARs, so the server's own JPA and Hibernate classes are the ones entities see.
+ * Resources are available through {@link #getResourceAsStream}, which is what bytecode tools ask for.
+ * Closing the loader drops its reference to the mapped archive, so the mapping, and on Windows the
+ * lock on the file, goes away once the classes it defined are unreachable too.
+ */
+final class FatJarClassLoader extends ClassLoader implements Closeable {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private volatile FatJar jar;
+
+    FatJarClassLoader(FatJar jar, ClassLoader parent) {
+        super("fat-jar:" + jar.getFile().getName(), parent);
+        this.jar = jar;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        FatJar jar = this.jar;
+        if (jar == null) {
+            throw new ClassNotFoundException(name + " (class loader closed)");
+        }
+        byte[] bytes;
+        try {
+            bytes = jar.read(name.replace('.', '/') + ".class");
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        InputStream parentResource = super.getResourceAsStream(name);
+        if (parentResource != null) {
+            return parentResource;
+        }
+        FatJar jar = this.jar;
+        if (jar == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = jar.read(name.startsWith("/") ? name.substring(1) : name);
+            return bytes != null ? new ByteArrayInputStream(bytes) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        jar = null;
+    }
+}
@@ -0,0 +1,249 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Row extractor for classes the SessionFactory does not map, chosen from the declared fields by
+ * annotations and naming conventions. Which fields become columns, and how each is read, is worked
+ * out once per class; converting a row only invokes the prepared getters.
+ */
+final class FieldRowExtractor extends RowExtractor {
+    private static final Logger LOG = LoggerFactory.getLogger(FieldRowExtractor.class);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final EntityMetadataCache<FieldRowExtractor> EXTRACTORS = EntityMetadataCache.create(FieldRowExtractor::compile);
+
+    private enum Kind {
+        BASIC,
+        ASSOCIATION, // written as <name>_id and <name>_label
+        COLLECTION // written as <name>_count
+    }
+
+    private static final class OutputColumn {
+        final String name;
+        final String idKey;
+        final String labelKey;
+        final String countKey;
+        final Kind kind;
+        final MethodHandle getter;
+
+        OutputColumn(String name, Kind kind, MethodHandle getter) {
+            this.name = name;
+            this.idKey = name + "_id";
+            this.labelKey = name + "_label";
+            this.countKey = name + "_count";
+            this.kind = kind;
+            this.getter = getter;
+        }
+    }
+
+    private final OutputColumn[] columns;
+    private final MethodHandle idGetter;
+
+    private FieldRowExtractor(OutputColumn[] columns, MethodHandle idGetter) {
+        this.columns = columns;
+        this.idGetter = idGetter;
+    }
+
+    static FieldRowExtractor of(Class<?> entityClass) {
+        return EXTRACTORS.get(entityClass);
+    }
+
+    @Override
+    void extract(Object entity, Set<String> fieldsToInclude, Map<String, Object> row) {
+        for (OutputColumn column : columns) {
+            if (fieldsToInclude != null && !fieldsToInclude.contains(column.name)) {
+                continue;
+            }
+
+            Object value;
+            try {
+                value = (Object) column.getter.invokeExact(entity);
+            } catch (Throwable e) {
+                LOG.warn("Error processing field {}: {}", column.name, e.getMessage());
+                row.put(column.name, null);
+                continue;
+            }
+
+            switch (column.kind) {
+                case COLLECTION:
+                    // For collections, just count elements
+                    row.put(column.countKey, value == null ? 0
+                        : value instanceof Collection ? ((Collection<?>) value).size()
+                        : Array.getLength(value));
+                    break;
+                case ASSOCIATION:
+                    // For related entities, extract only the ID and a label
+                    if (value != null) {
+                        row.put(column.idKey, QueryExecutor.formatBasicValue(idOf(value)));
+                        row.put(column.labelKey, value.toString());
+                    } else {
+                        row.put(column.idKey, null);
+                        row.put(column.labelKey, null);
+                    }
+                    break;
+                default:
+                    row.put(column.name, QueryExecutor.formatBasicValue(value));
+            }
+        }
+    }
+
+    @Override
+    Object id(Object entity) {
+        if (idGetter == null) {
+            return null;
+        }
+        try {
+            return (Object) idGetter.invokeExact(entity);
+        } catch (Throwable e) {
+            LOG.warn("Error extracting ID: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static FieldRowExtractor compile(Class<?> entityClass) {
+        List<Field> allFields = getAllEntityFields(entityClass);
+        List<OutputColumn> columns = new ArrayList<>();
+
+        for (Field field : allFields) {
+            if (!isColumnField(field, entityClass) && !isEntityField(field, entityClass)) {
+                continue;
+            }
+            MethodHandle getter = getter(field);
+            if (getter == null) {
+                continue;
+            }
+
+            Kind kind = isCollection(field) ? Kind.COLLECTION
+                : isEntity(field.getType()) ? Kind.ASSOCIATION
+                : Kind.BASIC;
+            columns.add(new OutputColumn(field.getName(), kind, getter));
+        }
+
+        LOG.debug("Compiled row extractor for {} with {} columns", entityClass.getName(), columns.size());
+        return new FieldRowExtractor(columns.toArray(new OutputColumn[0]), idGetter(entityClass, allFields));
+    }
+
+    private static MethodHandle idGetter(Class<?> entityClass, List<Field> allFields) {
+        // Look for field with @Id annotation
+        for (Field field : allFields) {
+            if (field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(EmbeddedId.class)) {
+                return getter(field);
+            }
+        }
+
+        // If not found, look by naming convention
+        try {
+            return getter(entityClass.getDeclaredField("id"));
+        } catch (NoSuchFieldException e) {
+            // Try getId method
+            try {
+                Method method = entityClass.getMethod("getId");
+                return LOOKUP.unreflect(method).asType(GETTER_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                LOG.warn("Could not find ID for {}", entityClass.getName());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns a getter of type (Object)Object for the field, or null when it cannot be made accessible
+     */
+    private static MethodHandle getter(Field field) {
+        try {
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(GETTER_TYPE);
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOG.warn("Field {} is not accessible: {}", field.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<Field> getAllEntityFields(Class<?> entityClass) {
+        List<Field> fields = new ArrayList<>();
+        Class<?> currentClass = entityClass;
+
+        while (currentClass != null && !currentClass.equals(Object.class)) {
+            fields.addAll(Arrays.asList(currentClass.getDeclaredFields()));
+            currentClass = currentClass.getSuperclass();
+        }
+        return fields;
+    }
+
+    private static boolean isColumnField(Field field, Class<?> entityClass) {
+        // Check JPA column annotations
+        if (field.isAnnotationPresent(Column.class) || field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(Basic.class) || field.isAnnotationPresent(Version.class)) {
+            return true;
+        }
+
+        // Check naming conventions
+        String fieldName = field.getName();
+        if (fieldName.equals("id") || fieldName.equals("version") || fieldName.contains("_") || (fieldName.startsWith("id") && fieldName.length() > 2 && Character.isUpperCase(fieldName.charAt(2)))) {
+            return true;
+        }
+
+        // Check field type
+        Class<?> type = field.getType();
+        if (type.isPrimitive() || type == String.class || Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type) || type == Boolean.class) {
+            return true;
+        }
+
+        // Check annotations on getter
+        String getterName = "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+        try {
+            Method getter = entityClass.getMethod(getterName);
+            return getter.isAnnotationPresent(Column.class) || getter.isAnnotationPresent(Id.class) || getter.isAnnotationPresent(Basic.class);
+        } catch (NoSuchMethodException e) {
+            // Getter not found
+            return false;
+        }
+    }
+
+    private static boolean isEntityField(Field field, Class<?> entityClass) {
+        // Check JPA relationship annotations
+        if (field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(OneToOne.class) || field.isAnnotationPresent(JoinColumn.class)) {
+            return true;
+        }
+
+        // Check field type
+        Class<?> type = field.getType();
+        if (type.isAnnotationPresent(Entity.class) || type.isAnnotationPresent(MappedSuperclass.class)) {
+            return true;
+        }
+
+        // Check annotations on getter
+        String getterName = "get" + field.getName().substring(0, 1).toUpperCase() + field.getName().substring(1);
+        try {
+            Method getter = entityClass.getMethod(getterName);
+            return getter.isAnnotationPresent(ManyToOne.class) || getter.isAnnotationPresent(OneToOne.class) || getter.isAnnotationPresent(JoinColumn.class);
+        } catch (NoSuchMethodException e) {
+            // Getter not found
+            return false;
+        }
+    }
+
+    private static boolean isCollection(Field field) {
+        return Collection.class.isAssignableFrom(field.getType()) || field.getType().isArray() || field.isAnnotationPresent(OneToMany.class) || field.isAnnotationPresent(ManyToMany.class);
+    }
+
+    private static boolean isEntity(Class<?> type) {
+        return type.isAnnotationPresent(Entity.class) || type.isAnnotationPresent(MappedSuperclass.class);
+    }
+}
@@ -3,6 +3,7 @@ package com.querytester;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.BootstrapServiceRegistryBuilder;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.slf4j.Logger;
@@ -12,34 +13,185 @@ import javax.persistence.Entity;
 import javax.persistence.Embeddable;
 import javax.persistence.MappedSuperclass;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class HibernateManager {
     private static final Logger LOG = LoggerFactory.getLogger(HibernateManager.class);
-    private static SessionFactory sessionFactory;
-    private static String currentDialect;
-    private static String currentHibernateVersion;
-    
-    // Locks for thread-safe access
-    private static final ReadWriteLock sessionFactoryLock = new ReentrantReadWriteLock();
+    static final int DEFAULT_MAX_FACTORIES = 4;
+    static final long DEFAULT_FACTORY_IDLE_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static volatile SessionFactoryRegistry factories =
+        new SessionFactoryRegistry(DEFAULT_MAX_FACTORIES, DEFAULT_FACTORY_IDLE_MS, HibernateManager::closeFactory);
+    // Lease taken by initialize() on this thread; queries on the thread use its factory
+    private static final ThreadLocal<BoundLease> CURRENT = new ThreadLocal<>();
+    // Class loaders of each factory's entities, closed with the factory
+    private static final Map<SessionFactory, ClassLoaderGeneration> GENERATIONS = new ConcurrentHashMap<>();
+    // Rebuilds factories whose entity classes changed on disk; null when not started
+    private static volatile EntityWatcher watcher;
 
+    /**
+     * Replaces the registry limits; only meant for startup, before any factory is built
+     */
+    static synchronized void configureRegistry(int maxFactories, long idleTimeoutMs) {
+        factories = new SessionFactoryRegistry(maxFactories, idleTimeoutMs, HibernateManager::closeFactory);
+    }
+
+    static void startIdleEviction() {
+        factories.startSweeper();
+    }
 
-    public static void initialize(Map<String, String> dbConfig, String entityLibPath, String[] entityPackages, boolean projectScan, String hibernateVersion) {
+    /**
+     * Watches the entity JARs and class directories of every factory built from now on, and rebuilds a
+     * factory in the background once its entity classes changed and stayed quiet for {@code debounceMs}
+     */
+    static synchronized void startEntityWatcher(long debounceMs) {
+        if (watcher != null) {
+            return;
+        }
         try {
-            // Checks if the current configuration is the same as the previous one and returns if there are no changes
-            if (sessionFactory != null && isSameConfiguration(dbConfig, hibernateVersion)) {
-                LOG.info("Using existing SessionFactory (configuration did not change)");
-                return;
+            watcher = new EntityWatcher(debounceMs, HibernateManager::reloadChanged);
+        } catch (IOException e) {
+            LOG.warn("Entity classes will not be watched: {}", e.getMessage());
+        }
+    }
+
+    private static void reloadChanged(SessionFactoryRegistry.FactoryKey key) {
+        CompletableFuture<Void> rebuild = factories.refresh(key);
+        if (rebuild == null) {
+            // Evicted since it was built; the next request builds it from the new classes anyway
+            watcher.unwatch(key);
+            return;
+        }
+        rebuild.whenComplete((done, error) -> {
+            if (error != null) {
+                LOG.warn("Reload after entity change failed for {}: {}", key, error.getMessage());
+            } else {
+                LOG.info("Reloaded entities for {}", key);
             }
-            
+        });
+    }
+
+    /**
+     * Binds the SessionFactory for this configuration to the calling thread, building it if the registry
+     * does not hold one yet. Close the returned lease when the request is done with the factory.
+     */
+    public static BoundLease initialize(Map<String, String> dbConfig, String entityLibPath, String[] entityPackages, boolean projectScan, String hibernateVersion) {
+        SessionFactoryRegistry.FactoryKey key =
+            new SessionFactoryRegistry.FactoryKey(dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion);
+        SessionFactoryRegistry.Lease lease = factories.acquire(key,
+            () -> buildSessionFactory(key, dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion));
+        BoundLease bound = new BoundLease(lease, CURRENT.get());
+        CURRENT.set(bound);
+        return bound;
+    }
+
+    /**
+     * Starts building the SessionFactory for this configuration in the background, e.g. at startup, so the
+     * first query does not pay for it. Requests arriving meanwhile wait for this build instead of starting
+     * their own. The future completes when the factory is ready.
+     */
+    static CompletableFuture<Void> preload(Map<String, String> dbConfig, String entityLibPath, String[] entityPackages, boolean projectScan, String hibernateVersion) {
+        SessionFactoryRegistry.FactoryKey key =
+            new SessionFactoryRegistry.FactoryKey(dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion);
+        return factories.prebuild(key,
+            () -> buildSessionFactory(key, dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion));
+    }
+
+    static boolean isReady(SessionFactoryRegistry.FactoryKey key) {
+        return factories.isReady(key);
+    }
+
+    static List<SessionFactoryRegistry.FactoryKey> keys() {
+        return factories.keys();
+    }
+
+    /**
+     * Rebuilds the SessionFactory for this configuration in the background, e.g. after its entity classes
+     * changed. Queries keep using the current factory until the new one replaces it. Returns null when
+     * the configuration has no factory yet.
+     */
+    public static CompletableFuture<Void> refresh(Map<String, String> dbConfig, String entityLibPath, String[] entityPackages, boolean projectScan, String hibernateVersion) {
+        return factories.refresh(
+            new SessionFactoryRegistry.FactoryKey(dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion));
+    }
+
+    /**
+     * A registry lease bound to the thread that took it; closing it restores the previous binding
+     */
+    public static final class BoundLease implements AutoCloseable {
+        private final SessionFactoryRegistry.Lease lease;
+        private final BoundLease previous;
+
+        private BoundLease(SessionFactoryRegistry.Lease lease, BoundLease previous) {
+            this.lease = lease;
+            this.previous = previous;
+        }
+
+        public SessionFactory getSessionFactory() {
+            return lease.getSessionFactory();
+        }
+
+        @Override
+        public void close() {
+            if (CURRENT.get() == this) {
+                if (previous != null) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+            lease.close();
+        }
+    }
+
+    static SessionFactory buildSessionFactory(SessionFactoryRegistry.FactoryKey key, Map<String, String> dbConfig, String entityLibPath, String[] entityPackages, boolean projectScan, String hibernateVersion) {
+        if (hibernateVersion == null || hibernateVersion.trim().isEmpty()) {
+            throw new IllegalArgumentException("hibernateVersion is required");
+        }
+        // Entity classes of this factory, and only this factory, load through the generation
+        ClassLoaderGeneration generation = new ClassLoaderGeneration(HibernateManager.class.getClassLoader());
+        StandardServiceRegistry registry = null;
+        SessionFactory sessionFactory = null;
+        try {
             LOG.info("Initializing Hibernate version {}", hibernateVersion);
-            currentHibernateVersion = hibernateVersion;
             
-            // Configures the StandardServiceRegistry with dynamic properties
-            StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder();
+            // Project module outputs are scanned together with the library
+            // (persistence.xml already includes project entities)
+            List<File> projectDirectories = new ArrayList<>();
+            if (projectScan && !EntityScanner.isPersistenceXml(entityLibPath)) {
+                LOG.info("Project scanning enabled, looking for project entities");
+                
+                // Determine project root directory
+                File projectRoot = determineProjectRoot();
+                if (projectRoot != null) {
+                    LOG.info("Project root determined: {}", projectRoot.getAbsolutePath());
+                    
+                    // Search for the classes directory of every module
+                    projectDirectories.addAll(EntityScanner.findClassesDirectories(projectRoot));
+                    if (!projectDirectories.isEmpty()) {
+                        LOG.info("Project classes directories found: {}", projectDirectories);
+                    } else {
+                        LOG.warn("Could not find project classes directory");
+                    }
+                } else {
+                    LOG.warn("Could not determine project root directory");
+                }
+            }
+            
+            // Adds scanned entities from library and project
+            Set<Class<?>> entities = EntityScanner.scanEntities(entityLibPath, entityPackages, projectDirectories, generation);
+            
+            // Configures the StandardServiceRegistry with dynamic properties; Hibernate resolves entity
+            // classes through the generation's loader, so no thread needs it as its context loader
+            StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder(
+                new BootstrapServiceRegistryBuilder().applyClassLoader(generation.getClassLoader()).build());
             
             if (dbConfig != null && !dbConfig.isEmpty()) {
                 // Basic connection settings
@@ -47,11 +199,13 @@ public class HibernateManager {
                 registryBuilder.applySetting("hibernate.connection.username", dbConfig.get("username"));
                 registryBuilder.applySetting("hibernate.connection.password", dbConfig.get("password"));
                 registryBuilder.applySetting("hibernate.connection.driver_class", dbConfig.get("driver"));
+                // Pooled connections, shared with other factories for the same datasource
+                registryBuilder.applySetting("hibernate.connection.provider_class", SharedPoolConnectionProvider.class.getName());
+                registryBuilder.applySetting(SharedPoolConnectionProvider.DB_CONFIG, dbConfig);
                 
                 // Determines the database dialect
                 String dialect = getDialect(dbConfig.get("url"), hibernateVersion);
                 registryBuilder.applySetting("hibernate.dialect", dialect);
-                currentDialect = dialect;
                 
                 // Additional configurations
                 registryBuilder.applySetting("hibernate.show_sql", "false");
@@ -64,7 +218,6 @@ public class HibernateManager {
                 // Version-specific configurations
                 if (hibernateVersion.startsWith("6")) {
                     registryBuilder.applySetting("hibernate.connection.handling_mode", "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
-                    registryBuilder.applySetting("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
                     registryBuilder.applySetting("hibernate.current_session_context_class", "thread");
                 }
                 
@@ -72,52 +225,10 @@ public class HibernateManager {
                 throw new IllegalStateException("Database configuration not provided.");
             }
 
-            StandardServiceRegistry registry = registryBuilder.build();
-            
-            // Ensures that the ClassLoader used by Hibernate is the same used for scanning
-            Thread.currentThread().setContextClassLoader(EntityScanner.getEntityClassLoader());
+            registry = registryBuilder.build();
             
             MetadataSources sources = new MetadataSources(registry);
             
-            // Adds scanned entities from library
-            Set<Class<?>> entities = EntityScanner.scanEntities(entityLibPath, entityPackages);
-            
-            // If projectScan is enabled and we're not already using persistence.xml 
-            // (as persistence.xml already includes project entities)
-            if (projectScan && (entityLibPath == null || !entityLibPath.toLowerCase().endsWith("persistence.xml"))) {
-                LOG.info("Project scanning enabled, looking for project entities");
-                
-                // Determine project root directory
-                File projectRoot = determineProjectRoot();
-                if (projectRoot != null) {
-                    LOG.info("Project root determined: {}", projectRoot.getAbsolutePath());
-                    
-                    // Search for classes directory
-                    File classesDir = findClassesDirectory(projectRoot);
-                    if (classesDir != null && classesDir.exists()) {
-                        LOG.info("Project classes directory found: {}", classesDir.getAbsolutePath());
-                        
-                        // Scan project entities
-                        Set<Class<?>> projectEntities = EntityScanner.scanEntities(
-                            classesDir.getAbsolutePath(), 
-                            entityPackages
-                        );
-                        
-                        // Add project entities to the set
-                        for (Class<?> projectEntity : projectEntities) {
-                            if (!entities.contains(projectEntity)) {
-                                entities.add(projectEntity);
-                                LOG.debug("Added project entity: {}", projectEntity.getName());
-                            }
-                        }
-                    } else {
-                        LOG.warn("Could not find project classes directory");
-                    }
-                } else {
-                    LOG.warn("Could not determine project root directory");
-                }
-            }
-            
             if (entities.isEmpty()) {
                 LOG.warn("No entities found for mapping.");
             } else {
@@ -146,24 +257,28 @@ public class HibernateManager {
             
             LOG.info("Building SessionFactory...");
             
-            // Acquires the write lock to update the sessionFactory
-            sessionFactoryLock.writeLock().lock();
-            try {
-                // Closes the existing SessionFactory to avoid resource leaks
-                if (sessionFactory != null && !sessionFactory.isClosed()) {
-                    LOG.info("Closing existing SessionFactory...");
-                    sessionFactory.close();
-                }
-                
-                // Creates new SessionFactory
-                sessionFactory = metadata.getSessionFactoryBuilder().build();
-            } finally {
-                sessionFactoryLock.writeLock().unlock();
+            sessionFactory = metadata.getSessionFactoryBuilder().build();
+            // Row extraction metadata is ready before the first query needs it
+            RowExtractor.prepare(sessionFactory);
+            GENERATIONS.put(sessionFactory, generation);
+
+            EntityWatcher entityWatcher = watcher;
+            if (entityWatcher != null) {
+                entityWatcher.watch(key, EntityScanner.entityRoots(entityLibPath, projectDirectories), entityPackages);
             }
             
             LOG.info("Hibernate {} configured successfully!", hibernateVersion);
+            return sessionFactory;
         } catch (Exception e) {
             LOG.error("Error configuring Hibernate: {}", e.getMessage(), e);
+            // A built factory holds a pooled datasource and the generation's classes until it is closed
+            if (sessionFactory != null) {
+                closeFactory(sessionFactory);
+            } else if (registry != null) {
+                // The connection provider may already hold a pool, acquired while the metadata was built
+                StandardServiceRegistryBuilder.destroy(registry);
+            }
+            generation.close();
             throw new RuntimeException("Hibernate initialization failed", e);
         }
     }
@@ -211,56 +326,18 @@ public class HibernateManager {
         return findProjectRoot(dir.getParentFile());
     }
     
-    private static File findClassesDirectory(File projectRoot) {
-        // Common locations for compiled classes
-        String[] possiblePaths = {
-            "target/classes",              // Standard Maven
-            "build/classes/java/main",     // Standard Gradle
-            "out/production/classes",      // IntelliJ IDEA
-            "bin"                          // Eclipse
-        };
-        
-        for (String path : possiblePaths) {
-            File dir = new File(projectRoot, path);
-            if (dir.exists() && dir.isDirectory()) {
-                return dir;
-            }
-        }
-        
-        // Recursively search in subdirectories
-        File[] subdirs = projectRoot.listFiles(File::isDirectory);
-        if (subdirs != null) {
-            for (File subdir : subdirs) {
-                if (subdir.getName().equals("target") || 
-                    subdir.getName().equals("build") || 
-                    subdir.getName().equals("out") || 
-                    subdir.getName().equals("bin")) {
-                    
-                    File classesDir = findClassesDirectory(subdir);
-                    if (classesDir != null) {
-                        return classesDir;
-                    }
-                }
-            }
-        }
-        
-        return null;
-    }
-    private static boolean isSameConfiguration(Map<String, String> dbConfig, String hibernateVersion) {
-        // Checks if the Hibernate version has changed
-        if (!hibernateVersion.equals(currentHibernateVersion)) {
-            LOG.info("Hibernate version changed: {} -> {}", currentHibernateVersion, hibernateVersion);
-            return false;
+    static void closeFactory(SessionFactory sessionFactory) {
+        LOG.info("Closing SessionFactory for {}", DatabaseKind.connectionUrl(sessionFactory));
+        RowExtractor.release(sessionFactory);
+        // EntityMetadataCache values live on the entity classes, so they go away with this factory's generation
+        if (!sessionFactory.isClosed()) {
+            sessionFactory.close();
         }
-        
-        // Checks if the database dialect has changed
-        String newDialect = getDialect(dbConfig.get("url"), hibernateVersion);
-        if (!newDialect.equals(currentDialect)) {
-            LOG.info("Dialect changed: {} -> {}", currentDialect, newDialect);
-            return false;
+        // Last, once nothing runs on the factory: releases the entity JARs and lets the classes unload
+        ClassLoaderGeneration generation = GENERATIONS.remove(sessionFactory);
+        if (generation != null) {
+            generation.close();
         }
-        
-        return true;
     }
 
     private static void listLoadedEntities(Metadata metadata) {
@@ -302,15 +379,26 @@ public class HibernateManager {
             : "org.hibernate.dialect.MySQL8Dialect";     // Hibernate 5.x
     }
 
+    /**
+     * The factory bound to the calling thread by {@link #initialize}. Without a lease there is no factory
+     * to use: any other one could belong to another datasource and be closed underneath the caller.
+     */
     public static SessionFactory getSessionFactory() {
-        sessionFactoryLock.readLock().lock();
-        try {
-            if (sessionFactory == null) {
-                throw new IllegalStateException("Hibernate not configured.");
-            }
-            return sessionFactory;
-        } finally {
-            sessionFactoryLock.readLock().unlock();
+        SessionFactory sessionFactory = currentSessionFactory();
+        if (sessionFactory == null) {
+            throw new IllegalStateException("Hibernate not configured: no SessionFactory is bound to this thread");
         }
+        if (sessionFactory.isClosed()) {
+            throw new IllegalStateException("SessionFactory bound to this thread is closed");
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * Same as {@link #getSessionFactory()} but null when no factory is bound to the calling thread
+     */
+    static SessionFactory currentSessionFactory() {
+        BoundLease bound = CURRENT.get();
+        return bound != null ? bound.getSessionFactory() : null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package com.querytester;
+
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Splits requests into two scheduling lanes, each with its own workers and queue. Queries and cursor
+ * reads go to the bulk lane; everything else (status, listing and cancelling queries, reloads, invalid
+ * requests) is answered without touching a database and goes to the interactive lane, whose workers
+ * are reserved for it, so those commands never wait behind a long query.
+ */
+final class Lanes {
+    static final int INTERACTIVE_THREADS = 2;
+    static final int MAX_QUEUED_INTERACTIVE = 50;
+
+    private static final Set<String> BULK_COMMANDS = Set.of("executeQuery", "fetchNext");
+
+    enum Lane {
+        INTERACTIVE,
+        BULK
+    }
+
+    private final Admission interactive;
+    private final Admission bulk;
+
+    Lanes(Admission interactive, Admission bulk) {
+        this.interactive = interactive;
+        this.bulk = bulk;
+    }
+
+    static Lane laneOf(Server.Request request) {
+        return request != null && BULK_COMMANDS.contains(request.command) ? Lane.BULK : Lane.INTERACTIVE;
+    }
+
+    /**
+     * Queues {@code task} in the lane of {@code request}; false when that lane is full
+     */
+    boolean submit(Server.Request request, Runnable task) {
+        return laneOf(request) == Lane.BULK
+            ? bulk.submit(Server.datasourceOf(request), task)
+            : interactive.submit(null, task);
+    }
+
+    /**
+     * Cancels the running queries of {@code owner} on the interactive lane. Cancelling can take a round
+     * trip to the database, so the selector thread never does it; a full lane hands it to the common pool.
+     */
+    void cancelAll(Object owner) {
+        Runnable cancel = () -> ActiveQueries.cancelAll(owner);
+        if (!interactive.submit(null, cancel)) {
+            ForkJoinPool.commonPool().execute(cancel);
+        }
+    }
+
+    /**
+     * Retry estimate for a request rejected by {@link #submit}, from the lane it was rejected by
+     */
+    long retryAfterMs(Server.Request request) {
+        return (laneOf(request) == Lane.BULK ? bulk : interactive).retryAfterMs();
+    }
+}
@@ -0,0 +1,252 @@
+package com.querytester;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only ZIP archive over a memory-mapped file or a slice of one. Only the central directory is
+ * parsed up front; entries are read straight from the mapping. A stored entry that is itself an
+ * archive, like the libraries of a Spring Boot JAR, is opened in place as a slice without copying it.
+ */
+final class MappedZip {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long headerOffset; // from the start of this archive's buffer
+
+        private Entry(String name, int method, long compressedSize, long size, long headerOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    private MappedZip(ByteBuffer data) throws ZipException {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = readCentralDirectory();
+    }
+
+    /**
+     * Maps the whole file; archives over 2 GB are not supported
+     */
+    static MappedZip map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("Archive too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return new MappedZip(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static MappedZip wrap(ByteBuffer data) throws ZipException {
+        return new MappedZip(data.slice());
+    }
+
+    /**
+     * Entries in central directory order
+     */
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    byte[] read(Entry entry) throws IOException {
+        ByteBuffer content = content(entry);
+        if (entry.method == STORED) {
+            byte[] bytes = new byte[content.remaining()];
+            content.get(bytes);
+            return bytes;
+        }
+        if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(content);
+            byte[] bytes = new byte[Math.toIntExact(entry.size)];
+            int read = 0;
+            boolean padded = false;
+            while (read < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, read, bytes.length - read);
+                if (n == 0 && inflater.needsInput()) {
+                    if (padded) {
+                        break;
+                    }
+                    // A raw inflater may want one byte past the end of the data
+                    inflater.setInput(new byte[1]);
+                    padded = true;
+                }
+                read += n;
+            }
+            if (read != bytes.length) {
+                throw new ZipException("Truncated entry " + entry.name);
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Opens an entry that is an archive. A stored one is read in place; a compressed one has to be
+     * inflated into memory first.
+     */
+    MappedZip nested(Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            return new MappedZip(content(entry));
+        }
+        return new MappedZip(ByteBuffer.wrap(read(entry)));
+    }
+
+    private ByteBuffer content(Entry entry) throws ZipException {
+        int header = Math.toIntExact(entry.headerOffset);
+        if (header < 0 || header + 30 > data.limit() || data.getInt(header) != LOCAL_HEADER) {
+            throw new ZipException("Bad local header for " + entry.name);
+        }
+        int start = header + 30 + u16(header + 26) + u16(header + 28);
+        long end = start + entry.compressedSize;
+        if (end > data.limit()) {
+            throw new ZipException("Entry " + entry.name + " runs past the end of the archive");
+        }
+        return slice(start, (int) end);
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws ZipException {
+        int end = findEndOfCentralDirectory();
+        long count = u16(end + 10);
+        long directorySize = u32(end + 12);
+        long directoryOffset = u32(end + 16);
+        int directoryEnd = end;
+
+        if (count == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            int locator = end - 20;
+            if (locator >= 0 && data.getInt(locator) == ZIP64_LOCATOR) {
+                int zip64End = Math.toIntExact(data.getLong(locator + 8));
+                if (data.getInt(zip64End) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                    throw new ZipException("Bad ZIP64 end of central directory");
+                }
+                count = data.getLong(zip64End + 32);
+                directorySize = data.getLong(zip64End + 40);
+                directoryOffset = data.getLong(zip64End + 48);
+                directoryEnd = zip64End;
+            }
+        }
+
+        // Offsets are relative to the archive; anything before it (e.g. a launch script) shifts them
+        long base = directoryEnd - directorySize - directoryOffset;
+        if (base < 0) {
+            throw new ZipException("Bad central directory offset");
+        }
+
+        Map<String, Entry> result = new LinkedHashMap<>();
+        int position = Math.toIntExact(base + directoryOffset);
+        for (long i = 0; i < count; i++) {
+            if (position + 46 > data.limit() || data.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Bad central directory entry " + i);
+            }
+            int method = u16(position + 10);
+            long compressedSize = u32(position + 20);
+            long size = u32(position + 24);
+            int nameLength = u16(position + 28);
+            int extraLength = u16(position + 30);
+            int commentLength = u16(position + 32);
+            long headerOffset = u32(position + 42);
+
+            byte[] name = new byte[nameLength];
+            slice(position + 46, position + 46 + nameLength).get(name);
+
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || headerOffset == ZIP64_MAGIC) {
+                // Values too large for the header are in the ZIP64 extra field, in this order
+                int extra = position + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = u16(extra);
+                    int length = u16(extra + 2);
+                    if (id == ZIP64_EXTRA) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = data.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = data.getLong(field);
+                            field += 8;
+                        }
+                        if (headerOffset == ZIP64_MAGIC) {
+                            headerOffset = data.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            result.putIfAbsent(entryName, new Entry(entryName, method, compressedSize, size, base + headerOffset));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        // Fixed 22 bytes, followed by a comment of up to 64 KB
+        int last = data.limit() - 22;
+        int first = Math.max(0, last - 0xFFFF);
+        for (int position = last; position >= first; position--) {
+            if (data.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        throw new ZipException("Not a ZIP archive");
+    }
+
+    private ByteBuffer slice(int start, int end) {
+        ByteBuffer view = data.duplicate();
+        view.limit(end).position(start);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int u16(int position) {
+        return Short.toUnsignedInt(data.getShort(position));
+    }
+
+    private long u32(int position) {
+        return Integer.toUnsignedLong(data.getInt(position));
+    }
+}
@@ -0,0 +1,338 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking front end: a single selector thread accepts connections, frames request lines,
+ * parses them and writes responses. Only the Hibernate work itself is handed to the worker pool,
+ * so slow clients or slow queries never hold an I/O thread.
+ */
+class NioServer {
+    private static final Logger LOG = LoggerFactory.getLogger(NioServer.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REQUEST_LINE = 16 * 1024 * 1024; // Guards against clients that never send a newline
+    private static final long STREAM_HIGH_WATER = 1024 * 1024; // Streaming workers wait while more than this is unsent
+
+    private final int port;
+    private final Lanes lanes;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // Connections with new output; write interest is switched on by the selector thread
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    NioServer(int port, Lanes lanes) throws IOException {
+        this.port = port;
+        this.lanes = lanes;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Runs both lanes on {@code workers}
+     */
+    NioServer(int port, Executor workers) throws IOException {
+        this(port, sharedLanes(new Admission(workers, 1, Server.MAX_QUEUED_REQUESTS)));
+    }
+
+    private static Lanes sharedLanes(Admission admission) {
+        return new Lanes(admission, admission);
+    }
+
+    void run() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.enableWrites();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        LOG.debug("Connection error: {}", e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            LOG.debug("New connection received: {}", channel.getRemoteAddress());
+        } catch (IOException e) {
+            LOG.error("Error accepting connection: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Per-connection state. Reads, framing and socket writes happen on the selector thread;
+     * workers only append to the outbound queue through {@link #sendLine(String)} and {@link #send(String)}.
+     */
+    private final class Connection implements ResponseSink {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicLong outboundBytes = new AtomicLong();
+        // Stream senders wait here for the client to drain; not a monitor, so virtual threads are not pinned
+        private final ReentrantLock drainLock = new ReentrantLock();
+        private final Condition drained = drainLock.newCondition();
+
+        // Untagged requests are answered in order, so only one of them runs at a time
+        private final Queue<Server.Request> untaggedBacklog = new ArrayDeque<>();
+        private boolean untaggedRunning;
+        private int inFlight;
+        private boolean inputClosed;
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                // Client closed the connection: cancel what is still running, answer it, then close
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                synchronized (this) {
+                    untaggedBacklog.clear();
+                }
+                lanes.cancelAll(this);
+                closeIfDone();
+                return;
+            }
+
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    String line = partialLine.toString(StandardCharsets.UTF_8.name());
+                    partialLine.reset();
+                    onLine(line);
+                } else {
+                    partialLine.write(b);
+                    if (partialLine.size() > MAX_REQUEST_LINE) {
+                        throw new IOException("Request line exceeds " + MAX_REQUEST_LINE + " bytes");
+                    }
+                }
+            }
+        }
+
+        private void onLine(String line) {
+            if (line.trim().isEmpty()) {
+                return;
+            }
+            LOG.debug("Request received: {}", line);
+
+            Server.Request request;
+            try {
+                request = Server.parseRequest(line);
+            } catch (Exception e) {
+                sendLine(Server.errorResponse(null, "Error processing request: " + e.getMessage()));
+                return;
+            }
+
+            if (request != null && request.id != null) {
+                // Tagged requests are multiplexed: they run concurrently and answer as they complete
+                dispatch(request);
+            } else {
+                synchronized (this) {
+                    if (untaggedRunning) {
+                        untaggedBacklog.add(request);
+                        return;
+                    }
+                    untaggedRunning = true;
+                }
+                dispatch(request);
+            }
+        }
+
+        private void dispatch(Server.Request request) {
+            synchronized (this) {
+                inFlight++;
+            }
+            Server.dispatch(lanes, request, this, this::sendLine, () -> finished(request));
+        }
+
+        private void finished(Server.Request request) {
+            Server.Request next = null;
+            synchronized (this) {
+                inFlight--;
+                if (request == null || request.id == null) {
+                    next = untaggedBacklog.poll();
+                    untaggedRunning = next != null;
+                }
+            }
+            if (next != null) {
+                dispatch(next);
+            }
+            // Let the selector thread decide whether a half-closed connection can go away
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Queues one response line without waiting; safe to call from any thread
+         */
+        void sendLine(String jsonLine) {
+            if (closed) {
+                LOG.debug("Discarding response for closed connection");
+                return;
+            }
+            byte[] bytes = (jsonLine + "\n").getBytes(StandardCharsets.UTF_8);
+            outboundBytes.addAndGet(bytes.length);
+            outbound.add(ByteBuffer.wrap(bytes));
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Queues a stream frame, first waiting for the client to drain what is already queued
+         */
+        @Override
+        public void send(String jsonLine) throws IOException {
+            Deadline deadline = Deadline.current();
+            drainLock.lock();
+            try {
+                while (!closed && outboundBytes.get() > STREAM_HIGH_WATER) {
+                    try {
+                        if (deadline == null) {
+                            drained.await();
+                        } else {
+                            // A client too slow to read its rows within the request's deadline
+                            deadline.check();
+                            drained.await(Math.max(1, deadline.remainingMs()), TimeUnit.MILLISECONDS);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the client", e);
+                    }
+                }
+            } finally {
+                drainLock.unlock();
+            }
+            if (closed) {
+                throw new IOException("Client connection closed");
+            }
+            sendLine(jsonLine);
+        }
+
+        private void signalDrained() {
+            drainLock.lock();
+            try {
+                drained.signalAll();
+            } finally {
+                drainLock.unlock();
+            }
+        }
+
+        void enableWrites() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            if (outbound.isEmpty()) {
+                closeIfDone();
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = outbound.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return; // Socket buffer full, wait for the next OP_WRITE
+                }
+                outbound.poll();
+                if (outboundBytes.addAndGet(-buffer.capacity()) <= STREAM_HIGH_WATER) {
+                    signalDrained();
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone();
+        }
+
+        private void closeIfDone() {
+            boolean done;
+            synchronized (this) {
+                done = inputClosed && inFlight == 0 && untaggedBacklog.isEmpty();
+            }
+            if (done && outbound.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lanes.cancelAll(this);
+            signalDrained();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("Error closing socket: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Server-side paging: LIMIT/OFFSET style windows for native SQL and, where the query allows it,
+ * keyset (seek) pagination on the entity id for JPQL.
+ */
+final class Pagination {
+    private static final Logger LOG = LoggerFactory.getLogger(Pagination.class);
+    static final String LAST_KEY_PARAM = "qtLastKey";
+
+    // "select c from Customer c ..." where the selected alias is the root entity alias
+    private static final Pattern ROOT_ENTITY_SELECT = Pattern.compile(
+        "^\\s*select\\s+(\\w+)\\s+from\\s+([\\w.]+)\\s+(?:as\\s+)?(\\w+)(.*)$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    // Joins can repeat a root row, and "id > last id" would drop the repeats that spill onto the next page
+    private static final Pattern KEYSET_BLOCKERS = Pattern.compile(
+        "\\b(order\\s+by|group\\s+by|having|union|join|fetch|distinct)\\b", Pattern.CASE_INSENSITIVE);
+    // Comma joins and "in(...)" collection members in the FROM clause repeat root rows just like explicit joins
+    private static final Pattern FROM_JOINS = Pattern.compile(",|\\bin\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PLAIN_SELECT = Pattern.compile("^select\\b", Pattern.CASE_INSENSITIVE);
+    // Clauses a LIMIT cannot follow, or that already limit the statement
+    private static final Pattern ROW_LIMITS = Pattern.compile(
+        "\\b(limit|offset|fetch|for\\s+update|for\\s+share)\\b", Pattern.CASE_INSENSITIVE);
+
+    private Pagination() {
+    }
+
+    /**
+     * Paging state for one result, advanced after every page. A {@link ResultCursors} entry owns it between pages.
+     */
+    static final class Page {
+        private final int pageSize;
+        private int offset;
+        private boolean planned;
+        private KeysetPlan keyset;
+        private Object lastKey;
+        private boolean hasMore;
+
+        Page(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        int getPageSize() {
+            return pageSize;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        KeysetPlan getKeyset() {
+            return keyset;
+        }
+
+        Object getLastKey() {
+            return lastKey;
+        }
+
+        boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * Decides once, on the first page, whether the JPQL query can be paged by id
+         */
+        void plan(SessionFactory sessionFactory, String jpql) {
+            if (!planned) {
+                keyset = planKeyset(sessionFactory, jpql);
+                planned = true;
+            }
+        }
+
+        void advance(int rows, boolean more, Object key) {
+            offset += rows;
+            hasMore = more;
+            if (key != null) {
+                lastKey = key;
+            }
+        }
+    }
+
+    /**
+     * Rewrites a root-entity JPQL query into "ordered by id, after the last id seen" form
+     */
+    static final class KeysetPlan {
+        private final String alias;
+        private final String idAttribute;
+        private final String selectFrom;
+        private final String where;
+
+        private KeysetPlan(String alias, String idAttribute, String selectFrom, String where) {
+            this.alias = alias;
+            this.idAttribute = idAttribute;
+            this.selectFrom = selectFrom;
+            this.where = where;
+        }
+
+        String getIdAttribute() {
+            return idAttribute;
+        }
+
+        String jpqlFor(Object lastKey) {
+            String key = alias + "." + idAttribute;
+            StringBuilder jpql = new StringBuilder(selectFrom);
+            if (lastKey != null) {
+                jpql.append(where != null ? " WHERE (" + where + ") AND " : " WHERE ")
+                    .append(key).append(" > :").append(LAST_KEY_PARAM);
+            } else if (where != null) {
+                jpql.append(" WHERE ").append(where);
+            }
+            return jpql.append(" ORDER BY ").append(key).toString();
+        }
+    }
+
+    /**
+     * Returns a keyset plan when the query selects a single root entity with a single id attribute
+     * and has no ordering, grouping, joins or distinct of its own; otherwise {@code null} (offset paging)
+     */
+    static KeysetPlan planKeyset(SessionFactory sessionFactory, String jpql) {
+        Matcher matcher = ROOT_ENTITY_SELECT.matcher(jpql.trim());
+        if (!matcher.matches() || !matcher.group(1).equals(matcher.group(3))) {
+            return null;
+        }
+        String rest = matcher.group(4);
+        if (KEYSET_BLOCKERS.matcher(rest).find()) {
+            return null;
+        }
+
+        String joins = rest;
+        String where = null;
+        Matcher whereMatcher = WHERE.matcher(rest);
+        if (whereMatcher.find()) {
+            joins = rest.substring(0, whereMatcher.start());
+            where = rest.substring(whereMatcher.end()).trim();
+        }
+        if (FROM_JOINS.matcher(joins).find()) {
+            return null;
+        }
+
+        String idAttribute = findIdAttribute(sessionFactory, matcher.group(2));
+        if (idAttribute == null) {
+            return null;
+        }
+
+        String alias = matcher.group(3);
+        String selectFrom = jpql.trim().substring(0, matcher.start(4));
+
+        LOG.debug("Keyset pagination on {}.{}", alias, idAttribute);
+        return new KeysetPlan(alias, idAttribute, (selectFrom + joins).trim(), where);
+    }
+
+    private static String findIdAttribute(SessionFactory sessionFactory, String entityName) {
+        for (EntityType<?> entity : sessionFactory.getMetamodel().getEntities()) {
+            if (entity.getName().equals(entityName) || entity.getJavaType().getName().equals(entityName)) {
+                if (!entity.hasSingleIdAttribute()) {
+                    return null;
+                }
+                for (SingularAttribute<?, ?> attribute : entity.getSingularAttributes()) {
+                    if (attribute.isId()) {
+                        return attribute.getName();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Limits a native query so the database returns at most {@code limit} rows starting at {@code offset}.
+     * Returns null when the statement cannot be limited in SQL; the caller then pages it through
+     * {@code setFirstResult}/{@code setMaxResults}.
+     */
+    static String wrapNative(String sql, DatabaseKind kind, int offset, int limit) {
+        String inner = sql.trim();
+        if (inner.endsWith(";")) {
+            inner = inner.substring(0, inner.length() - 1).trim();
+        }
+
+        switch (kind) {
+            case ORACLE:
+                // Oracle 12c+ row limiting clause; derived tables take no AS
+                return "SELECT * FROM (" + inner + ") qt_page OFFSET " + offset + " ROWS FETCH NEXT " + limit + " ROWS ONLY";
+            case SQLSERVER:
+                // SQL Server rejects ORDER BY inside a derived table, so an ordered query gets the clause appended
+                if (hasTrailingOrderBy(inner)) {
+                    return inner + " OFFSET " + offset + " ROWS FETCH NEXT " + limit + " ROWS ONLY";
+                }
+                return "SELECT * FROM (" + inner + ") qt_page ORDER BY (SELECT NULL) OFFSET " + offset
+                    + " ROWS FETCH NEXT " + limit + " ROWS ONLY";
+            default:
+                if (hasTrailingRowLimit(inner)) {
+                    // A second LIMIT cannot be appended, and Hibernate would append one too
+                    return "SELECT * FROM (" + inner + ") qt_page LIMIT " + limit + " OFFSET " + offset;
+                }
+                // Appended, not wrapped: MySQL, MariaDB and H2 reject a derived table with duplicate column names.
+                // On its own line, so a trailing line comment does not swallow it.
+                if (PLAIN_SELECT.matcher(inner).lookingAt()) {
+                    return inner + "\nLIMIT " + limit + " OFFSET " + offset;
+                }
+                return null;
+        }
+    }
+
+    private static boolean hasTrailingRowLimit(String sql) {
+        Matcher matcher = ROW_LIMITS.matcher(sql);
+        int last = -1;
+        while (matcher.find()) {
+            last = matcher.start();
+        }
+        return last >= 0 && sql.indexOf(')', last) < 0;
+    }
+
+    private static boolean hasTrailingOrderBy(String sql) {
+        String lower = sql.toLowerCase(Locale.ROOT);
+        int orderBy = lower.lastIndexOf("order by");
+        return orderBy >= 0 && lower.indexOf(')', orderBy) < 0;
+    }
+}
@@ -0,0 +1,186 @@
+package com.querytester;
+
+import org.hibernate.EntityMode;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Row extractor built from the SessionFactory's mapping of an entity. Columns are the mapped
+ * properties, whatever the access type, with embedded values and composite ids flattened
+ * to {@code <property>.<attribute>} keys.
+ */
+final class PersisterRowExtractor extends RowExtractor {
+    private static final Logger LOG = LoggerFactory.getLogger(PersisterRowExtractor.class);
+
+    private enum Kind {
+        BASIC,
+        ASSOCIATION, // written as <name>_id and <name>_label
+        COLLECTION, // written as <name>_count
+        COMPONENT // written as <name>.<attribute>
+    }
+
+    private static final class Property {
+        final String name;
+        final int index;
+        final Kind kind;
+        final Component component;
+
+        Property(String name, int index, Type type) {
+            this.name = name;
+            this.index = index;
+            this.kind = type.isCollectionType() ? Kind.COLLECTION
+                : type.isEntityType() ? Kind.ASSOCIATION
+                : type.isComponentType() ? Kind.COMPONENT
+                : Kind.BASIC;
+            this.component = kind == Kind.COMPONENT ? new Component(name, (ComponentType) type) : null;
+        }
+    }
+
+    /**
+     * An embedded value or composite id, flattened into one column per attribute
+     */
+    private static final class Component {
+        final ComponentType type;
+        final String[] keys; // indexed like the component's property values
+        final int[] order; // property indexes in source order (Hibernate keeps them sorted by name)
+
+        Component(String prefix, ComponentType type) {
+            this.type = type;
+            String[] names = type.getPropertyNames();
+            this.keys = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = prefix != null ? prefix + "." + names[i] : names[i];
+            }
+            Map<String, Integer> declarationOrder = declarationOrder(type.getReturnedClass());
+            this.order = IntStream.range(0, names.length).boxed()
+                .sorted(Comparator.comparingInt(i -> declarationOrder.getOrDefault(names[i], Integer.MAX_VALUE)))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        }
+
+        void write(Object value, Set<String> fieldsToInclude, Map<String, Object> row) {
+            Object[] values = value != null ? type.getPropertyValues(value, EntityMode.POJO) : null;
+            for (int i : order) {
+                if (fieldsToInclude != null && !fieldsToInclude.contains(keys[i])) {
+                    continue;
+                }
+                row.put(keys[i], values != null ? QueryExecutor.formatBasicValue(values[i]) : null);
+            }
+        }
+    }
+
+    private final EntityPersister persister;
+    private final String idName; // null when the id is not a single property (@IdClass)
+    private final Component idComponent; // set for @EmbeddedId and @IdClass ids
+    private final Property[] properties;
+
+    PersisterRowExtractor(EntityPersister persister) {
+        this.persister = persister;
+        this.idName = persister.hasIdentifierProperty() ? persister.getIdentifierPropertyName() : null;
+
+        Type idType = persister.getIdentifierType();
+        this.idComponent = idType.isComponentType() ? new Component(idName, (ComponentType) idType) : null;
+
+        String[] names = persister.getPropertyNames();
+        Type[] types = persister.getPropertyTypes();
+        Map<String, Integer> declarationOrder = declarationOrder(persister.getMappedClass());
+        this.properties = new Property[names.length];
+        for (int i = 0; i < names.length; i++) {
+            properties[i] = new Property(names[i], i, types[i]);
+        }
+        // Same column order as the entity source; property-access only attributes go last
+        Arrays.sort(properties, Comparator
+            .comparingInt((Property p) -> declarationOrder.getOrDefault(p.name, Integer.MAX_VALUE))
+            .thenComparing(p -> p.name));
+    }
+
+    @Override
+    void extract(Object entity, Set<String> fieldsToInclude, Map<String, Object> row) {
+        if (idComponent != null) {
+            if (idName == null) {
+                // @IdClass attributes are selected by their own names
+                idComponent.write(id(entity), fieldsToInclude, row);
+            } else if (fieldsToInclude == null || fieldsToInclude.contains(idName)) {
+                idComponent.write(id(entity), null, row);
+            }
+        } else if (idName != null && (fieldsToInclude == null || fieldsToInclude.contains(idName))) {
+            row.put(idName, QueryExecutor.formatBasicValue(id(entity)));
+        }
+
+        Object[] values = persister.getPropertyValues(entity);
+        for (Property property : properties) {
+            if (fieldsToInclude != null && !fieldsToInclude.contains(property.name)) {
+                continue;
+            }
+
+            Object value = values[property.index];
+            switch (property.kind) {
+                case COLLECTION:
+                    // Same contract as FieldRowExtractor: a lazy collection is loaded (or counted, if extra-lazy) by size()
+                    row.put(property.name + "_count", value == null ? 0 : size(value));
+                    break;
+                case ASSOCIATION:
+                    if (value != null) {
+                        row.put(property.name + "_id", QueryExecutor.formatBasicValue(idOf(value)));
+                        row.put(property.name + "_label", value.toString());
+                    } else {
+                        row.put(property.name + "_id", null);
+                        row.put(property.name + "_label", null);
+                    }
+                    break;
+                case COMPONENT:
+                    property.component.write(value, null, row);
+                    break;
+                default:
+                    row.put(property.name, QueryExecutor.formatBasicValue(value));
+            }
+        }
+    }
+
+    @Override
+    Object id(Object entity) {
+        try {
+            return persister.getIdentifier(entity, (SharedSessionContractImplementor) null);
+        } catch (RuntimeException e) {
+            LOG.warn("Error extracting ID of {}: {}", persister.getEntityName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static Object size(Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).size();
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).size();
+        }
+        return value.getClass().isArray() ? Array.getLength(value) : null;
+    }
+
+    /**
+     * Position of each field in the class hierarchy, superclass fields first
+     */
+    private static Map<String, Integer> declarationOrder(Class<?> mappedClass) {
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> c = mappedClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.push(c);
+        }
+
+        Map<String, Integer> order = new HashMap<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                order.putIfAbsent(field.getName(), order.size());
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,216 @@
+package com.querytester;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.querytester.dto.QueryResultDTO;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Builds the SessionFactories of known configurations at startup, so the first query after the
+ * extension starts does not scan entities and build a factory inside its own timeout. Each factory
+ * is validated once built: a trivial query opens a connection and runs the server's query path,
+ * which also loads and warms the driver and Hibernate classes it needs.
+ */
+final class Preloader {
+    private static final Logger LOG = LoggerFactory.getLogger(Preloader.class);
+    private static final int VALIDATION_TIMEOUT_S = 10;
+    private static final Gson GSON = new Gson();
+
+    enum State {
+        BUILDING,
+        VALIDATING,
+        READY,
+        FAILED
+    }
+
+    /**
+     * One configuration to preload; same fields, with the same meaning, as in an executeQuery request.
+     * A request only uses the preloaded factory if its fields are identical.
+     */
+    static final class Config {
+        Map<String, String> dbConfig;
+        String entityLibPath;
+        String[] entityPackages;
+        boolean projectScan;
+        String hibernateVersion;
+
+        SessionFactoryRegistry.FactoryKey key() {
+            return new SessionFactoryRegistry.FactoryKey(dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion);
+        }
+
+        /**
+         * Why the configuration cannot be built, or null when it has every required field
+         */
+        String problem() {
+            if (dbConfig == null || dbConfig.get("url") == null || dbConfig.get("url").trim().isEmpty()) {
+                return "dbConfig.url is required";
+            }
+            if (hibernateVersion == null || hibernateVersion.trim().isEmpty()) {
+                return "hibernateVersion is required";
+            }
+            return null;
+        }
+    }
+
+    private static final class Progress {
+        final long started = System.currentTimeMillis();
+        volatile State state = State.BUILDING;
+        volatile long elapsedMs;
+        volatile String error;
+
+        void finish(State state, String error) {
+            this.elapsedMs = System.currentTimeMillis() - started;
+            this.error = error;
+            this.state = state;
+        }
+    }
+
+    // Preloaded configurations in the order they were given
+    private static final Map<SessionFactoryRegistry.FactoryKey, Progress> PRELOADED =
+        Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private Preloader() {
+    }
+
+    /**
+     * Reads configurations from a JSON file: an array of them, or an object with a "datasources" array
+     */
+    static List<Config> readConfigFile(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonElement json = JsonParser.parseReader(reader);
+            if (json.isJsonObject() && json.getAsJsonObject().has("datasources")) {
+                json = json.getAsJsonObject().get("datasources");
+            }
+            if (!json.isJsonArray()) {
+                throw new IOException("Expected an array of configurations or a \"datasources\" array in " + file);
+            }
+            return Arrays.asList(GSON.fromJson(json, Config[].class));
+        }
+    }
+
+    /**
+     * Starts building and validating every configuration in the background; returns immediately.
+     * The returned future completes when all of them are ready or failed.
+     */
+    static CompletableFuture<Void> start(List<Config> configs) {
+        List<CompletableFuture<Void>> all = new ArrayList<>();
+        for (Config config : configs) {
+            SessionFactoryRegistry.FactoryKey key = config.key();
+            Progress progress = new Progress();
+            PRELOADED.put(key, progress);
+            String problem = config.problem();
+            if (problem != null) {
+                // Listed by status as FAILED, with the reason
+                LOG.warn("Skipping preload configuration for {}: {}", key, problem);
+                progress.finish(State.FAILED, problem);
+                continue;
+            }
+            LOG.info("Preloading SessionFactory for {}", key);
+            all.add(HibernateManager.preload(config.dbConfig, config.entityLibPath, config.entityPackages,
+                    config.projectScan, config.hibernateVersion)
+                .thenRunAsync(() -> {
+                    progress.state = State.VALIDATING;
+                    validate(config);
+                })
+                .handle((done, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                        String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                        LOG.warn("Preloading SessionFactory for {} failed: {}", key, message);
+                        progress.finish(State.FAILED, message);
+                    } else {
+                        progress.finish(State.READY, null);
+                        LOG.info("SessionFactory for {} ready after {} ms", key, progress.elapsedMs);
+                    }
+                    return null;
+                }));
+        }
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Runs the validation query through the same path as a native query request, then parses a JPQL
+     * query so the HQL translator is loaded too
+     */
+    private static void validate(Config config) {
+        try (HibernateManager.BoundLease lease = HibernateManager.initialize(config.dbConfig, config.entityLibPath,
+                config.entityPackages, config.projectScan, config.hibernateVersion)) {
+            SessionFactory sessionFactory = lease.getSessionFactory();
+            String validationQuery = DatabaseKind.of(sessionFactory).validationQuery();
+            if (validationQuery != null) {
+                QueryResultDTO result = QueryExecutor.executeNativeSql(validationQuery, Collections.emptyMap());
+                if (!"SUCCESS".equals(result.getStatus())) {
+                    throw new IllegalStateException(result.getMessage());
+                }
+            } else {
+                try (Session session = sessionFactory.openSession()) {
+                    session.doWork(connection -> {
+                        if (!connection.isValid(VALIDATION_TIMEOUT_S)) {
+                            throw new SQLException("Connection is not valid");
+                        }
+                    });
+                }
+            }
+            sessionFactory.getMetamodel().getEntities().stream().findFirst().ifPresent(entity -> {
+                try (Session session = sessionFactory.openSession()) {
+                    session.createQuery("select e from " + entity.getName() + " e");
+                }
+            });
+        }
+    }
+
+    /**
+     * Every preloaded configuration, then every other registered one, with its state. Configurations
+     * built on demand are only BUILDING or READY; failed on-demand builds are not kept.
+     */
+    static List<Map<String, Object>> status() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        Set<SessionFactoryRegistry.FactoryKey> listed = new HashSet<>();
+        synchronized (PRELOADED) {
+            for (Map.Entry<SessionFactoryRegistry.FactoryKey, Progress> entry : PRELOADED.entrySet()) {
+                Progress progress = entry.getValue();
+                Map<String, Object> row = row(entry.getKey(), progress.state);
+                row.put("preloaded", true);
+                row.put("elapsedMs", progress.state == State.READY || progress.state == State.FAILED
+                    ? progress.elapsedMs
+                    : System.currentTimeMillis() - progress.started);
+                if (progress.error != null) {
+                    row.put("error", progress.error);
+                }
+                rows.add(row);
+                listed.add(entry.getKey());
+            }
+        }
+        for (SessionFactoryRegistry.FactoryKey key : HibernateManager.keys()) {
+            if (listed.add(key)) {
+                Map<String, Object> row = row(key, HibernateManager.isReady(key) ? State.READY : State.BUILDING);
+                row.put("preloaded", false);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> row(SessionFactoryRegistry.FactoryKey key, State state) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("url", key.getUrl());
+        row.put("username", key.getUsername());
+        row.put("state", state.name());
+        return row;
+    }
+}
@@ -1,15 +1,17 @@
 package com.querytester;
 
 import com.querytester.dto.QueryResultDTO;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.ParseException;
@@ -19,38 +21,57 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import javax.persistence.*;
-
 public class QueryExecutor {
     private static final Logger LOG = LoggerFactory.getLogger(QueryExecutor.class);
 
-    // Cache to improve performance
-    private static final Map<Class<?>, List<Field>> ENTITY_FIELDS_CACHE = new HashMap<>();
-    private static final Map<Class<?>, List<Field>> COLUMN_FIELDS_CACHE = new HashMap<>();
-    private static final Map<Class<?>, Field> ID_FIELD_CACHE = new HashMap<>();
-
     public static QueryResultDTO executeJpql(String jpql, Map<String, Object> params) {
         return executeJpql(jpql, params, null);
     }
 
     public static QueryResultDTO executeJpql(String jpql, Map<String, Object> params, Set<String> fieldsToInclude) {
+        return executeJpql(jpql, params, fieldsToInclude, QueryOptions.defaults());
+    }
+
+    public static QueryResultDTO executeJpql(String jpql, Map<String, Object> params, Set<String> fieldsToInclude,
+                                             QueryOptions options) {
         validateInput(jpql, params);
         QueryResultDTO result = new QueryResultDTO();
         long startTime = System.currentTimeMillis();
 
-        try (Session session = HibernateManager.getSessionFactory().openSession()) {
-            session.beginTransaction();
+        try (Session session = beginSession(jpql, options)) {
             try {
-                Query<?> query = session.createQuery(jpql);
-                applyParameters(query, jpql, params);
-
-                // Execute the query with timeout limit to avoid issues
-                query.setTimeout(30); // 30 seconds
-                List<?> rawResult = query.getResultList();
+                Pagination.Page page = options.getPage();
+                String queryString = jpql;
+                if (page != null) {
+                    page.plan(session.getSessionFactory(), jpql);
+                    if (page.getKeyset() != null) {
+                        queryString = page.getKeyset().jpqlFor(page.getLastKey());
+                    }
+                }
 
-                result.setResults(convertToMaps(rawResult, fieldsToInclude));
+                Query<?> query = session.createQuery(queryString);
+                applyParameters(query, queryString, params);
+
+                // The statement gets what is left of the request's time budget, 30 seconds without one
+                Deadline.enter(Deadline.Phase.EXECUTION);
+                query.setTimeout(Deadline.statementTimeoutSeconds());
+
+                if (page != null) {
+                    result.setResults(convertToMaps(readPage(session, query, page, false), fieldsToInclude));
+                    result.setHasMore(page.hasMore());
+                } else if (options.getFetchSize() != null) {
+                    // Cursor path: entities are converted and released as they are read
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    scrollRows(session, query, options.getFetchSize(), options,
+                        row -> convertRow(row, fieldsToInclude), rows::add);
+                    result.setResults(rows);
+                } else {
+                    List<?> rawResult = query.getResultList();
+                    result.setResults(convertToMaps(rawResult, fieldsToInclude));
+                }
                 result.setStatus("SUCCESS");
                 result.setExecutionTime(System.currentTimeMillis() - startTime);
                 result.setMessage("JPQL query executed successfully");
@@ -72,22 +93,41 @@ public class QueryExecutor {
 
 
     public static QueryResultDTO executeNativeSql(String sql, Map<String, Object> params) {
+        return executeNativeSql(sql, params, QueryOptions.defaults());
+    }
+
+    public static QueryResultDTO executeNativeSql(String sql, Map<String, Object> params, QueryOptions options) {
         validateInput(sql, params);
         QueryResultDTO result = new QueryResultDTO();
         long startTime = System.currentTimeMillis();
 
-        try (Session session = HibernateManager.getSessionFactory().openSession()) {
-            session.beginTransaction();
+        try (Session session = beginSession(sql, options)) {
             try {
+                Pagination.Page page = options.getPage();
+                String limited = page != null
+                    ? Pagination.wrapNative(sql, DatabaseKind.of(session.getSessionFactory()), page.getOffset(), page.getPageSize() + 1)
+                    : null;
+                String queryString = limited != null ? limited : sql;
+
                 // Create native query
-                Query<?> query = session.createNativeQuery(sql);
-                applyParameters(query, sql, params);
+                Query<?> query = session.createNativeQuery(queryString);
+                applyParameters(query, queryString, params);
 
                 // Execute with security timeout
-                query.setTimeout(30);
-                List<?> rawResult = query.getResultList();
-
-                result.setResults(convertNativeResultToMaps(rawResult));
+                Deadline.enter(Deadline.Phase.EXECUTION);
+                query.setTimeout(Deadline.statementTimeoutSeconds());
+
+                if (page != null) {
+                    result.setResults(convertNativeResultToMaps(readPage(session, query, page, limited != null)));
+                    result.setHasMore(page.hasMore());
+                } else if (options.getFetchSize() != null) {
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    scrollRows(session, query, options.getFetchSize(), options, QueryExecutor::convertNativeRow, rows::add);
+                    result.setResults(rows);
+                } else {
+                    List<?> rawResult = query.getResultList();
+                    result.setResults(convertNativeResultToMaps(rawResult));
+                }
                 result.setStatus("SUCCESS");
                 result.setExecutionTime(System.currentTimeMillis() - startTime);
                 result.setMessage("Native SQL query executed successfully");
@@ -107,39 +147,276 @@ public class QueryExecutor {
         return result;
     }
 
+    /**
+     * Opens a Session and begins its transaction. Read-only sessions load entities without
+     * dirty-checking snapshots, never flush, and run on a read-only JDBC connection.
+     */
+    static Session beginSession(String query, QueryOptions options) {
+        Deadline.enter(Deadline.Phase.CONNECTION);
+        Session session = HibernateManager.getSessionFactory().openSession();
+        try {
+            // From here on a cancelQuery for this request cancels the Session's running statement
+            ActiveQueries.attach(session);
+            if (options.isReadOnly(query)) {
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+                // Drivers only accept the flag outside a transaction (PgJDBC sends BEGIN READ ONLY afterwards).
+                // Hikari resets it when the connection is returned, so it is not cleared here.
+                session.doWork(connection -> connection.setReadOnly(true));
+            }
+            session.beginTransaction();
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Reads one page plus a single look-ahead row, which only tells whether another page exists.
+     * Native queries usually arrive {@code limitedInSql} by {@link Pagination#wrapNative}; anything else is
+     * limited here, by id when the page has a keyset plan and by offset otherwise.
+     */
+    private static List<?> readPage(Session session, Query<?> query, Pagination.Page page, boolean limitedInSql) {
+        Pagination.KeysetPlan keyset = page.getKeyset();
+        if (!limitedInSql) {
+            if (keyset != null) {
+                if (page.getLastKey() != null) {
+                    query.setParameter(Pagination.LAST_KEY_PARAM, page.getLastKey());
+                }
+            } else {
+                query.setFirstResult(page.getOffset());
+            }
+            query.setMaxResults(page.getPageSize() + 1);
+        }
+
+        List<?> rows = query.getResultList();
+        boolean hasMore = rows.size() > page.getPageSize();
+        if (hasMore) {
+            rows = rows.subList(0, page.getPageSize());
+        }
+
+        Object lastKey = null;
+        if (keyset != null && !rows.isEmpty()) {
+            lastKey = session.getIdentifier(rows.get(rows.size() - 1));
+        }
+        page.advance(rows.size(), hasMore, lastKey);
+        return rows;
+    }
+
+    /**
+     * Receives a streamed result as it is read from the JDBC cursor
+     */
+    public interface RowChunkListener {
+        /**
+         * Called once, before any rows, with the column names and the time taken to reach the first row
+         */
+        void onHeader(List<String> columns, long executionTime) throws IOException;
+
+        /**
+         * Called for every full chunk and once more for the final partial chunk
+         */
+        void onRows(int sequence, List<Map<String, Object>> rows) throws IOException;
+    }
+
+    /**
+     * Executes a JPQL query and hands rows to the listener in chunks instead of building the whole result.
+     * The returned DTO is the trailer: status, total row count and total time.
+     */
+    public static QueryResultDTO streamJpql(String jpql, Map<String, Object> params, Set<String> fieldsToInclude,
+                                            QueryOptions options, RowChunkListener listener) {
+        validateInput(jpql, params);
+        QueryResultDTO result = new QueryResultDTO();
+        result.setFrame("trailer");
+        long startTime = System.currentTimeMillis();
+
+        try (Session session = beginSession(jpql, options)) {
+            try {
+                Query<?> query = session.createQuery(jpql);
+                applyParameters(query, jpql, params);
+                Deadline.enter(Deadline.Phase.EXECUTION);
+                query.setTimeout(Deadline.statementTimeoutSeconds());
+
+                long totalRows = streamRows(session, query, options, row -> convertRow(row, fieldsToInclude),
+                    listener, startTime);
+
+                result.setTotalRows(totalRows);
+                result.setStatus("SUCCESS");
+                result.setExecutionTime(System.currentTimeMillis() - startTime);
+                result.setMessage("JPQL query streamed successfully");
+
+                LOG.info("JPQL query streamed: {}", jpql);
+                LOG.info("Parameters: {}", params);
+                LOG.info("Results: {} records", totalRows);
+
+                session.getTransaction().commit();
+            } catch (Exception e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            handleError(result, e, "Error streaming JPQL");
+        }
+        return result;
+    }
+
+    /**
+     * Native SQL counterpart of {@link #streamJpql}
+     */
+    public static QueryResultDTO streamNativeSql(String sql, Map<String, Object> params,
+                                                 QueryOptions options, RowChunkListener listener) {
+        validateInput(sql, params);
+        QueryResultDTO result = new QueryResultDTO();
+        result.setFrame("trailer");
+        long startTime = System.currentTimeMillis();
+
+        try (Session session = beginSession(sql, options)) {
+            try {
+                Query<?> query = session.createNativeQuery(sql);
+                applyParameters(query, sql, params);
+                Deadline.enter(Deadline.Phase.EXECUTION);
+                query.setTimeout(Deadline.statementTimeoutSeconds());
+
+                long totalRows = streamRows(session, query, options, QueryExecutor::convertNativeRow, listener, startTime);
+
+                result.setTotalRows(totalRows);
+                result.setStatus("SUCCESS");
+                result.setExecutionTime(System.currentTimeMillis() - startTime);
+                result.setMessage("Native SQL query streamed successfully");
+
+                LOG.info("Native SQL query streamed: {}", sql);
+                LOG.info("Parameters: {}", params);
+                LOG.info("Results: {} records", totalRows);
+
+                session.getTransaction().commit();
+            } catch (Exception e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            handleError(result, e, "Error streaming native SQL");
+        }
+        return result;
+    }
+
+    /**
+     * Reads rows through the cursor and flushes them to the listener every {@code chunkSize} rows,
+     * so only one chunk of converted rows is held in memory
+     */
+    private static long streamRows(Session session, Query<?> query, QueryOptions options,
+                                   Function<Object, Map<String, Object>> converter,
+                                   RowChunkListener listener, long startTime) throws IOException {
+        // A streamed result always uses a cursor; without an explicit fetch size, fetch one chunk at a time
+        int fetchSize = options.getFetchSize() != null ? options.getFetchSize() : options.getChunkSize();
+        ChunkingHandler chunker = new ChunkingHandler(listener, options.getChunkSize(), startTime);
+
+        long totalRows = scrollRows(session, query, fetchSize, options, converter, chunker);
+        chunker.finish();
+        return totalRows;
+    }
+
+    /**
+     * Consumes converted rows from a cursor
+     */
+    private interface RowHandler {
+        void accept(Map<String, Object> row) throws IOException;
+    }
+
+    /**
+     * Groups rows into chunks for a {@link RowChunkListener}, sending the header before the first row
+     */
+    private static final class ChunkingHandler implements RowHandler {
+        private final RowChunkListener listener;
+        private final int chunkSize;
+        private final long startTime;
+        private List<Map<String, Object>> chunk;
+        private int sequence;
+        private boolean headerSent;
+
+        ChunkingHandler(RowChunkListener listener, int chunkSize, long startTime) {
+            this.listener = listener;
+            this.chunkSize = chunkSize;
+            this.startTime = startTime;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        @Override
+        public void accept(Map<String, Object> row) throws IOException {
+            if (!headerSent) {
+                listener.onHeader(new ArrayList<>(row.keySet()), System.currentTimeMillis() - startTime);
+                headerSent = true;
+            }
+            chunk.add(row);
+            if (chunk.size() >= chunkSize) {
+                listener.onRows(sequence++, chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        void finish() throws IOException {
+            if (!headerSent) {
+                listener.onHeader(Collections.emptyList(), System.currentTimeMillis() - startTime);
+            }
+            if (!chunk.isEmpty()) {
+                listener.onRows(sequence, chunk);
+            }
+        }
+    }
+
+    /**
+     * Reads a query through a forward-only {@link ScrollableResults}, converting each row before the next
+     * is fetched and clearing the Session at regular intervals so the persistence context stays small
+     */
+    private static long scrollRows(Session session, Query<?> query, int fetchSize, QueryOptions options,
+                                   Function<Object, Map<String, Object>> converter, RowHandler handler) throws IOException {
+        CursorFetch.prepare(session, query, fetchSize);
+        int clearInterval = options.getSessionClearInterval();
+        long totalRows = 0;
+
+        try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                ActiveQueries.checkCancelled();
+                Deadline.checkCurrent();
+                Object[] row = results.get();
+                // Single-column rows are unwrapped, as getResultList() does
+                handler.accept(converter.apply(row.length == 1 ? row[0] : row));
+                totalRows++;
+                if (totalRows % clearInterval == 0) {
+                    session.clear();
+                }
+            }
+        }
+        return totalRows;
+    }
+
     private static List<Map<String, Object>> convertNativeResultToMaps(List<?> rawResult) {
         if (rawResult == null || rawResult.isEmpty()) {
             return Collections.emptyList();
         }
 
-        List<Map<String, Object>> resultMaps = new ArrayList<>();
-        Object first = rawResult.get(0);
+        Deadline.enter(Deadline.Phase.CONVERSION);
+        List<Map<String, Object>> resultMaps = new ArrayList<>(rawResult.size());
+        for (Object row : rawResult) {
+            Deadline.checkCurrent();
+            resultMaps.add(convertNativeRow(row));
+        }
+        return resultMaps;
+    }
+
+    private static Map<String, Object> convertNativeRow(Object row) {
+        Map<String, Object> map = new LinkedHashMap<>();
 
         // Native SQL results usually come as arrays of Object[]
-        if (first instanceof Object[]) {
-            for (Object row : rawResult) {
-                Object[] rowData = (Object[]) row;
-                Map<String, Object> map = new HashMap<>();
-                for (int i = 0; i < rowData.length; i++) {
-                    map.put("Col" + i, formatBasicValue(rowData[i]));
-                }
-                resultMaps.add(map);
+        if (row instanceof Object[]) {
+            Object[] rowData = (Object[]) row;
+            for (int i = 0; i < rowData.length; i++) {
+                map.put("Col" + i, formatBasicValue(rowData[i]));
             }
         } else {
             // For single values (COUNT, SUM, etc.)
-            Map<String, Object> map = new HashMap<>();
-            map.put("Result", formatBasicValue(first));
-            resultMaps.add(map);
-
-            // Also add the remaining values
-            for (int i = 1; i < rawResult.size(); i++) {
-                map = new HashMap<>();
-                map.put("Result", formatBasicValue(rawResult.get(i)));
-                resultMaps.add(map);
-            }
+            map.put("Result", formatBasicValue(row));
         }
-
-        return resultMaps;
+        return map;
     }
 
     private static void validateInput(String query, Map<String, Object> params) {
@@ -409,224 +686,31 @@ public class QueryExecutor {
             return Collections.emptyList();
         }
 
-        List<Map<String, Object>> resultMaps = new ArrayList<>();
-        Object first = rawResult.get(0);
-
-        if (first instanceof Object[]) {
-            // Results from JPQL projections
-            for (Object row : rawResult) {
-                Object[] rowData = (Object[]) row;
-                Map<String, Object> map = new HashMap<>();
-                for (int i = 0; i < rowData.length; i++) {
-                    map.put("Col" + i, formatBasicValue(rowData[i]));
-                }
-                resultMaps.add(map);
-            }
-        } else {
-            // Results from entity queries
-            for (Object row : rawResult) {
-                Object unproxiedRow = unproxy(row);
-                Map<String, Object> map = new HashMap<>();
-                Class<?> entityClass = unproxiedRow.getClass();
-
-                // Get column fields from entity (cached for performance)
-                List<Field> columnFields = getColumnFields(entityClass);
-
-                // Process each entity field
-                for (Field field : columnFields) {
-                    String fieldName = field.getName();
-
-                    // Check if the field should be included
-                    if (fieldsToInclude != null && !fieldsToInclude.contains(fieldName)) {
-                        continue;
-                    }
-
-                    try {
-                        field.setAccessible(true);
-                        Object value = field.get(unproxiedRow);
-
-                        // Check if it's a relation or collection
-                        if (isCollection(field)) {
-                            // For collections, just count elements or ignore
-                            if (value != null) {
-                                Collection<?> collection = (Collection<?>) value;
-                                map.put(fieldName + "_count", collection.size());
-                            } else {
-                                map.put(fieldName + "_count", 0);
-                            }
-                        } else if (isEntity(field.getType())) {
-                            // For related entities, extract only the ID
-                            if (value != null) {
-                                Object idValue = extractIdFromEntity(value);
-                                map.put(fieldName + "_id", formatBasicValue(idValue));
-                                map.put(fieldName + "_label", value.toString());
-                            } else {
-                                map.put(fieldName + "_id", null);
-                                map.put(fieldName + "_label", null);
-                            }
-                        } else {
-                            map.put(fieldName, formatBasicValue(value));
-                        }
-                    } catch (Exception e) {
-                        LOG.warn("Error processing field {}: {}", fieldName, e.getMessage());
-                        map.put(fieldName, null);
-                    }
-                }
-
-                resultMaps.add(map);
-            }
+        Deadline.enter(Deadline.Phase.CONVERSION);
+        List<Map<String, Object>> resultMaps = new ArrayList<>(rawResult.size());
+        for (Object row : rawResult) {
+            Deadline.checkCurrent();
+            resultMaps.add(convertRow(row, fieldsToInclude));
         }
-
         return resultMaps;
     }
 
-    private static List<Field> getColumnFields(Class<?> entityClass) {
-        // Check cache first
-        if (COLUMN_FIELDS_CACHE.containsKey(entityClass)) {
-            return COLUMN_FIELDS_CACHE.get(entityClass);
-        }
-
-        List<Field> columnFields = new ArrayList<>();
-        List<Field> allFields = getAllEntityFields(entityClass);
+    private static Map<String, Object> convertRow(Object row, Set<String> fieldsToInclude) {
+        Map<String, Object> map = new LinkedHashMap<>();
 
-        for (Field field : allFields) {
-            if (isColumnField(field, entityClass) || isEntityField(field, entityClass)) {
-                columnFields.add(field);
+        if (row instanceof Object[]) {
+            // Results from JPQL projections
+            Object[] rowData = (Object[]) row;
+            for (int i = 0; i < rowData.length; i++) {
+                map.put("Col" + i, formatBasicValue(rowData[i]));
             }
+            return map;
         }
 
-        // Store in cache
-        COLUMN_FIELDS_CACHE.put(entityClass, columnFields);
-        return columnFields;
-    }
-
-    private static List<Field> getAllEntityFields(Class<?> entityClass) {
-        // Check cache first
-        if (ENTITY_FIELDS_CACHE.containsKey(entityClass)) {
-            return ENTITY_FIELDS_CACHE.get(entityClass);
-        }
-
-        List<Field> fields = new ArrayList<>();
-        Class<?> currentClass = entityClass;
-
-        while (currentClass != null && !currentClass.equals(Object.class)) {
-            fields.addAll(Arrays.asList(currentClass.getDeclaredFields()));
-            currentClass = currentClass.getSuperclass();
-        }
-
-        // Store in cache
-        ENTITY_FIELDS_CACHE.put(entityClass, fields);
-        return fields;
-    }
-
-    private static boolean isColumnField(Field field, Class<?> entityClass) {
-        // Check JPA column annotations
-        if (field.isAnnotationPresent(Column.class) || field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(Basic.class) || field.isAnnotationPresent(Version.class)) {
-            return true;
-        }
-
-        // Check naming conventions
-        String fieldName = field.getName();
-        if (fieldName.equals("id") || fieldName.equals("version") || fieldName.contains("_") || (fieldName.startsWith("id") && fieldName.length() > 2 && Character.isUpperCase(fieldName.charAt(2)))) {
-            return true;
-        }
-
-        // Check field type
-        Class<?> type = field.getType();
-        if (type.isPrimitive() || type == String.class || Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type) || type == Boolean.class) {
-            return true;
-        }
-
-        // Check annotations on getter
-        String getterName = "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
-        try {
-            Method getter = entityClass.getMethod(getterName);
-            return getter.isAnnotationPresent(Column.class) || getter.isAnnotationPresent(Id.class) || getter.isAnnotationPresent(Basic.class);
-        } catch (NoSuchMethodException e) {
-            // Getter not found
-            return false;
-        }
-    }
-
-    private static boolean isEntityField(Field field, Class<?> entityClass) {
-        // Check JPA relationship annotations
-        if (field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(OneToOne.class) || field.isAnnotationPresent(JoinColumn.class)) {
-            return true;
-        }
-
-        // Check field type
-        Class<?> type = field.getType();
-        if (type.isAnnotationPresent(Entity.class) || type.isAnnotationPresent(MappedSuperclass.class)) {
-            return true;
-        }
-
-        // Check annotations on getter
-        String getterName = "get" + field.getName().substring(0, 1).toUpperCase() + field.getName().substring(1);
-        try {
-            Method getter = entityClass.getMethod(getterName);
-            return getter.isAnnotationPresent(ManyToOne.class) || getter.isAnnotationPresent(OneToOne.class) || getter.isAnnotationPresent(JoinColumn.class);
-        } catch (NoSuchMethodException e) {
-            // Getter not found
-            return false;
-        }
-    }
-
-    private static boolean isCollection(Field field) {
-        return Collection.class.isAssignableFrom(field.getType()) || field.getType().isArray() || field.isAnnotationPresent(OneToMany.class) || field.isAnnotationPresent(ManyToMany.class);
-    }
-
-    private static boolean isEntity(Class<?> type) {
-        return type.isAnnotationPresent(Entity.class) || type.isAnnotationPresent(MappedSuperclass.class);
-    }
-
-    private static Object extractIdFromEntity(Object entity) {
-        if (entity == null) return null;
-
-        try {
-            Class<?> entityClass = entity.getClass();
-
-            // Check cache
-            Field idField = ID_FIELD_CACHE.get(entityClass);
-
-            if (idField == null) {
-                // Look for field with @Id annotation
-                for (Field field : getAllEntityFields(entityClass)) {
-                    if (field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(EmbeddedId.class)) {
-                        idField = field;
-                        ID_FIELD_CACHE.put(entityClass, field);
-                        break;
-                    }
-                }
-
-                // If not found, look by naming convention
-                if (idField == null) {
-                    try {
-                        idField = entityClass.getDeclaredField("id");
-                        ID_FIELD_CACHE.put(entityClass, idField);
-                    } catch (NoSuchFieldException e) {
-                        // Try getId method
-                        try {
-                            Method method = entityClass.getMethod("getId");
-                            return method.invoke(entity);
-                        } catch (NoSuchMethodException ex) {
-                            LOG.warn("Could not find ID for {}", entityClass.getName());
-                            return null;
-                        }
-                    }
-                }
-            }
-
-            // Access the ID field
-            if (idField != null) {
-                idField.setAccessible(true);
-                return idField.get(entity);
-            }
-
-            return null;
-        } catch (Exception e) {
-            LOG.warn("Error extracting ID: {}", e.getMessage());
-            return null;
-        }
+        // Results from entity queries
+        Object unproxiedRow = unproxy(row);
+        RowExtractor.forClass(unproxiedRow.getClass()).extract(unproxiedRow, fieldsToInclude, map);
+        return map;
     }
 
     /**
@@ -646,7 +730,7 @@ public class QueryExecutor {
     /**
      * Formats a basic value (non-entity) for JSON representation
      */
-    private static Object formatBasicValue(Object value) {
+    static Object formatBasicValue(Object value) {
         if (value == null) return null;
 
         // For simple types, use directly
@@ -669,6 +753,22 @@ public class QueryExecutor {
     }
 
     private static void handleError(QueryResultDTO result, Exception e, String errorPrefix) {
+        if (ActiveQueries.isCurrentCancelled()) {
+            // Whatever the driver reported, the statement failed because it was cancelled
+            result.setStatus("CANCELLED");
+            result.setMessage("Query cancelled");
+            LOG.info("{}: query cancelled", errorPrefix);
+            return;
+        }
+        Deadline.Phase timedOut = Deadline.expiredPhase();
+        if (timedOut != null) {
+            // A JDBC timeout, a pool wait or a check between rows: all mean the request ran out of time
+            result.setStatus("TIMEOUT");
+            result.setTimedOutPhase(timedOut.name());
+            result.setMessage(errorPrefix + ": request deadline exceeded during " + timedOut);
+            LOG.warn("{}: request deadline exceeded during {}", errorPrefix, timedOut);
+            return;
+        }
         result.setStatus("ERROR");
         result.setMessage(errorPrefix + ": " + e.getMessage());
         LOG.error("{}: {}", errorPrefix, e.getMessage(), e);
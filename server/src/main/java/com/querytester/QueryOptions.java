@@ -0,0 +1,99 @@
+package com.querytester;
+
+import java.util.Locale;
+
+/**
+ * Per-request execution options that do not change what a query means, only how it is run
+ * and how its rows are delivered.
+ */
+public class QueryOptions {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_SESSION_CLEAR_INTERVAL = 1000;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private Integer fetchSize;
+    private int sessionClearInterval = DEFAULT_SESSION_CLEAR_INTERVAL;
+    private Pagination.Page page;
+    private Boolean readOnly;
+
+    public static QueryOptions defaults() {
+        return new QueryOptions();
+    }
+
+    /**
+     * Rows per "rows" frame when a result is streamed
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public QueryOptions setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        return this;
+    }
+
+    /**
+     * JDBC fetch size; when set, rows are read through a forward-only cursor instead of getResultList()
+     */
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public QueryOptions setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize != null && fetchSize > 0 ? fetchSize : null;
+        return this;
+    }
+
+    /**
+     * While reading through a cursor, the Session is cleared every this many rows
+     * so loaded entities do not accumulate in the persistence context
+     */
+    public int getSessionClearInterval() {
+        return sessionClearInterval;
+    }
+
+    public QueryOptions setSessionClearInterval(int sessionClearInterval) {
+        this.sessionClearInterval = sessionClearInterval > 0 ? sessionClearInterval : DEFAULT_SESSION_CLEAR_INTERVAL;
+        return this;
+    }
+
+    /**
+     * Explicit read-only choice, or null to decide from the query text
+     */
+    public Boolean getReadOnly() {
+        return readOnly;
+    }
+
+    public QueryOptions setReadOnly(Boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    /**
+     * Queries run read-only unless the caller says otherwise or the statement is not a query
+     */
+    public boolean isReadOnly(String query) {
+        return readOnly != null ? readOnly : isSelect(query);
+    }
+
+    static boolean isSelect(String query) {
+        if (query == null) {
+            return false;
+        }
+        String start = query.trim().toLowerCase(Locale.ROOT);
+        return start.startsWith("select") || start.startsWith("from") || start.startsWith("with")
+            || start.startsWith("(");
+    }
+
+    /**
+     * When set, only the next page of the result is read; the page records where the following one starts
+     */
+    Pagination.Page getPage() {
+        return page;
+    }
+
+    QueryOptions setPage(Pagination.Page page) {
+        this.page = page;
+        return this;
+    }
+}
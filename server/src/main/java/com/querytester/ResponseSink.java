@@ -0,0 +1,14 @@
+package com.querytester;
+
+import java.io.IOException;
+
+/**
+ * Where the frames of a streamed response go. Implementations may block the caller until the
+ * client has caught up, which is what keeps a large streamed result from piling up in memory.
+ */
+interface ResponseSink {
+    /**
+     * Sends one JSON line; fails if the client is gone so the query can stop early
+     */
+    void send(String jsonLine) throws IOException;
+}
@@ -0,0 +1,95 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Open paged results, addressed by the token handed to the client for fetchNext.
+ * A cursor holds no database resources between pages: it keeps the original request and
+ * where the next page starts, and each page runs in its own Session.
+ */
+final class ResultCursors {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCursors.class);
+    static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_OPEN = 1000;
+
+    private static final Map<String, Cursor> OPEN = new ConcurrentHashMap<>();
+
+    private ResultCursors() {
+    }
+
+    static final class Cursor {
+        final Server.Request request;
+        final Pagination.Page page;
+        // Held across a page's database work; a lock rather than a monitor so a virtual thread is not pinned
+        final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Cursor(Server.Request request, Pagination.Page page) {
+            this.request = request;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Registers a result that has more pages and returns its token
+     */
+    static String open(Server.Request request, Pagination.Page page) {
+        expireIdle();
+        makeRoom();
+        String token = UUID.randomUUID().toString();
+        OPEN.put(token, new Cursor(request, page));
+        LOG.debug("Opened cursor {} ({} open)", token, OPEN.size());
+        return token;
+    }
+
+    /**
+     * Returns the cursor for a token, or null when it is unknown, exhausted or has expired
+     */
+    static Cursor get(String token) {
+        expireIdle();
+        Cursor cursor = OPEN.get(token);
+        if (cursor != null) {
+            cursor.lastUsed = System.currentTimeMillis();
+        }
+        return cursor;
+    }
+
+    static void close(String token) {
+        if (OPEN.remove(token) != null) {
+            LOG.debug("Closed cursor {}", token);
+        }
+    }
+
+    static int openCount() {
+        return OPEN.size();
+    }
+
+    private static void expireIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        OPEN.entrySet().removeIf(entry -> entry.getValue().lastUsed < cutoff);
+    }
+
+    /**
+     * Drops the least recently used cursors so that one more fits; only opening a cursor needs room
+     */
+    private static void makeRoom() {
+        // Clients that never page to the end should not grow the map without bound
+        int excess = OPEN.size() - MAX_OPEN + 1;
+        if (excess > 0) {
+            OPEN.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().lastUsed))
+                .limit(excess)
+                .map(Map.Entry::getKey)
+                .forEach(OPEN::remove);
+            LOG.info("Dropped {} least recently used cursors", excess);
+        }
+    }
+}
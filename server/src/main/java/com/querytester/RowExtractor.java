@@ -0,0 +1,74 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts entities of one class into result rows. Classes mapped by the current SessionFactory use
+ * extractors prepared from its persisters when the factory is built; anything else falls back to
+ * {@link FieldRowExtractor}.
+ */
+abstract class RowExtractor {
+    private static final Logger LOG = LoggerFactory.getLogger(RowExtractor.class);
+
+    private static final Map<SessionFactory, Map<Class<?>, RowExtractor>> MAPPED = new ConcurrentHashMap<>();
+
+    /**
+     * Writes the entity's columns into {@code row}, keeping only {@code fieldsToInclude} when given
+     */
+    abstract void extract(Object entity, Set<String> fieldsToInclude, Map<String, Object> row);
+
+    /**
+     * Reads the entity's identifier, or null when the class has none that can be found
+     */
+    abstract Object id(Object entity);
+
+    /**
+     * Extractor for the class as mapped by the calling thread's SessionFactory
+     */
+    static RowExtractor forClass(Class<?> entityClass) {
+        SessionFactory sessionFactory = HibernateManager.currentSessionFactory();
+        Map<Class<?>, RowExtractor> mapped = sessionFactory != null ? MAPPED.get(sessionFactory) : null;
+        RowExtractor extractor = mapped != null ? mapped.get(entityClass) : null;
+        return extractor != null ? extractor : FieldRowExtractor.of(entityClass);
+    }
+
+    /**
+     * Identifier of a related entity; an uninitialized proxy answers without loading its target
+     */
+    static Object idOf(Object entity) {
+        if (entity instanceof HibernateProxy) {
+            return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+        }
+        return forClass(entity.getClass()).id(entity);
+    }
+
+    /**
+     * Builds the extractors for every entity the SessionFactory maps
+     */
+    static void prepare(SessionFactory sessionFactory) {
+        MetamodelImplementor metamodel = (MetamodelImplementor) sessionFactory.getMetamodel();
+        Map<Class<?>, RowExtractor> extractors = new HashMap<>();
+        for (EntityPersister persister : metamodel.entityPersisters().values()) {
+            Class<?> mappedClass = persister.getMappedClass();
+            if (mappedClass != null) {
+                extractors.put(mappedClass, new PersisterRowExtractor(persister));
+            }
+        }
+        MAPPED.put(sessionFactory, extractors);
+        LOG.info("Prepared row extractors for {} entities", extractors.size());
+    }
+
+    static void release(SessionFactory sessionFactory) {
+        MAPPED.remove(sessionFactory);
+    }
+}
@@ -0,0 +1,168 @@
+package com.querytester;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scan results kept on disk between runs, one file per scanned root and package filter. A JAR is
+ * recognized by its size and modification time, or failing that by a SHA-256 of its content; a
+ * directory by the size and modification time of each class file, so only changed files are read again.
+ */
+final class ScanCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final Gson GSON = new Gson();
+
+    /**
+     * What was found in one root the last time it was scanned
+     */
+    static final class Record {
+        int version = FORMAT_VERSION;
+        String root;
+        List<String> packages;
+        // JAR fingerprint and its annotated classes
+        long size;
+        long lastModified;
+        String sha256;
+        Map<String, ClassIndex.Kind> classes;
+        // Directory: every class file read, keyed by path relative to the root
+        Map<String, FileRecord> files;
+    }
+
+    static final class FileRecord {
+        long size;
+        long lastModified;
+        ClassIndex.Kind kind; // null when the class has no JPA annotation
+
+        FileRecord(long size, long lastModified, ClassIndex.Kind kind) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.kind = kind;
+        }
+    }
+
+    private final Path directory;
+
+    ScanCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Cache under {@code ~/.query-tester/scan-cache}
+     */
+    static ScanCache inUserHome() {
+        return new ScanCache(Paths.get(System.getProperty("user.home"), ".query-tester", "scan-cache"));
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The record stored for this root and filter, or null when there is none or it cannot be read
+     */
+    Record read(File root, List<String> packages) {
+        Path file = fileFor(root, packages);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Record record = GSON.fromJson(reader, Record.class);
+            if (record == null || record.version != FORMAT_VERSION
+                || !root.getAbsolutePath().equals(record.root) || !packages.equals(record.packages)) {
+                return null;
+            }
+            return record;
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Ignoring unreadable scan cache {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    void write(File root, List<String> packages, Record record) {
+        record.root = root.getAbsolutePath();
+        record.packages = packages;
+        Path file = fileFor(root, packages);
+        try {
+            Files.createDirectories(directory);
+            // Written aside and moved in, so a concurrent reader never sees half a file
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(record, writer);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write scan cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the JAR is the one the record was made from. The hash is only computed when
+     * size or modification time differ, e.g. after a rebuild that produced the same content.
+     */
+    static boolean matchesJar(Record record, File jar) {
+        if (record.classes == null) {
+            return false;
+        }
+        if (record.size == jar.length() && record.lastModified == jar.lastModified()) {
+            return true;
+        }
+        return record.size == jar.length() && record.sha256 != null && record.sha256.equals(sha256(jar));
+    }
+
+    static Record jarRecord(File jar, Map<String, ClassIndex.Kind> classes) {
+        Record record = new Record();
+        record.size = jar.length();
+        record.lastModified = jar.lastModified();
+        record.sha256 = sha256(jar);
+        record.classes = classes;
+        return record;
+    }
+
+    static String sha256(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOG.warn("Could not hash {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path fileFor(File root, List<String> packages) {
+        String key = root.getAbsolutePath() + "|" + String.join(",", packages);
+        String name = root.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return directory.resolve(name + "-" + Integer.toHexString(key.hashCode()) + ".json");
+    }
+}
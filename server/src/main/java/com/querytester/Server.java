@@ -4,24 +4,47 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import com.querytester.dto.QueryResultDTO;
+import com.querytester.dto.ResultFrameDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.OutputStreamWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class Server {
     private static final Logger LOG = LoggerFactory.getLogger(Server.class);
     private static int PORT = 8089; // Default port, can be changed via args
     private static final int MAX_THREADS = 10; // Maximum number of simultaneous threads
+    static final int MAX_QUEUED_REQUESTS = 100; // Requests waiting for a worker before the server reports busy
+    private static final long ENTITY_RELOAD_DEBOUNCE_MS = 1000; // Quiet time after a compile before entities are reloaded
+    private static final Set<String> CONFIG_FLAGS_WITH_VALUE = Set.of("--db-url", "--db-username", "--db-password",
+        "--db-driver", "--entity-lib", "--entity-packages", "--hibernate-version");
+    private static final Set<String> COMMANDS_WITHOUT_QUERY = Set.of("fetchNext", "reloadEntities", "status", "listActive", "cancelQuery");
+    // Hibernate work runs here; the I/O front ends only parse, dispatch and write
+    private static ExecutorService requestPool = WorkerPools.platform(MAX_THREADS, MAX_QUEUED_REQUESTS);
+    private static boolean virtualThreads = false; // Set by --virtual-threads when the JVM supports them
+    // Reserved for commands that do not query a database, so they never queue behind the ones that do
+    private static final ExecutorService interactivePool =
+        WorkerPools.platform(Lanes.INTERACTIVE_THREADS, Lanes.MAX_QUEUED_INTERACTIVE);
+    private static final Admission interactiveAdmission =
+        new Admission(interactivePool, Lanes.INTERACTIVE_THREADS, Lanes.MAX_QUEUED_INTERACTIVE);
+    // Bulk lane queues requests per datasource in front of requestPool; replaced along with the pool
+    private static volatile Lanes lanes = new Lanes(interactiveAdmission,
+        new Admission(requestPool, MAX_THREADS, MAX_QUEUED_REQUESTS));
     private static final Gson GSON = new GsonBuilder()
         .registerTypeAdapter(Date.class, (JsonDeserializer<Date>) (json, type, context) -> {
             try {
@@ -35,21 +58,202 @@ public class Server {
         .create();
 
     public static void main(String[] args) {
+        boolean blockingIo = false;
+        boolean virtualThreadsRequested = false;
+        int maxFactories = HibernateManager.DEFAULT_MAX_FACTORIES;
+        long factoryIdleMs = HibernateManager.DEFAULT_FACTORY_IDLE_MS;
+        ScanCache scanCache = ScanCache.inUserHome();
+        boolean watchEntities = true;
+        List<Preloader.Config> preload = new ArrayList<>();
+        Preloader.Config argsConfig = null; // Built from the --db-* and --entity-* arguments
+
         // Allow port configuration via command line arguments
-        if (args.length > 0) {
+        for (String arg : args) {
+            if (arg.equals("--blocking")) {
+                blockingIo = true;
+                continue;
+            }
+            if (arg.equals("--virtual-threads")) {
+                // Applied after the loop, once --max-per-datasource is known whatever its position
+                virtualThreadsRequested = true;
+                continue;
+            }
+            if (arg.startsWith("--max-per-datasource=")) {
+                try {
+                    DatasourceLimiter.setMaxConcurrent(Integer.parseInt(arg.substring("--max-per-datasource=".length())));
+                    LOG.info("Concurrent queries per datasource limited to {}", DatasourceLimiter.getMaxConcurrent());
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Invalid argument: {}. Using default limit: {}", arg, DatasourceLimiter.getMaxConcurrent());
+                }
+                continue;
+            }
+            if (arg.startsWith("--max-factories=")) {
+                try {
+                    maxFactories = Math.max(1, Integer.parseInt(arg.substring("--max-factories=".length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid argument: {}. Using default: {}", arg, maxFactories);
+                }
+                continue;
+            }
+            if (arg.startsWith("--factory-idle-minutes=")) {
+                try {
+                    factoryIdleMs = TimeUnit.MINUTES.toMillis(Long.parseLong(arg.substring("--factory-idle-minutes=".length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid argument: {}. Using default idle timeout", arg);
+                }
+                continue;
+            }
+            if (arg.startsWith("--scan-cache-dir=")) {
+                scanCache = new ScanCache(Paths.get(arg.substring("--scan-cache-dir=".length())));
+                continue;
+            }
+            if (arg.equals("--no-scan-cache")) {
+                scanCache = null;
+                continue;
+            }
+            if (arg.equals("--no-entity-watch")) {
+                watchEntities = false;
+                continue;
+            }
+            if (arg.startsWith("--config=")) {
+                try {
+                    preload.addAll(Preloader.readConfigFile(Paths.get(arg.substring("--config=".length()))));
+                } catch (Exception e) {
+                    LOG.warn("Could not read configuration file {}: {}", arg.substring("--config=".length()), e.getMessage());
+                }
+                continue;
+            }
+            if (arg.startsWith("--db-") || arg.startsWith("--entity-") || arg.startsWith("--hibernate-version")
+                    || arg.equals("--project-scan")) {
+                if (argsConfig == null) {
+                    argsConfig = new Preloader.Config();
+                    argsConfig.dbConfig = new HashMap<>();
+                }
+                try {
+                    if (!applyConfigArgument(argsConfig, arg)) {
+                        LOG.warn("Unknown argument: {}", arg);
+                    }
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Ignoring argument {}: {}", arg, e.getMessage());
+                }
+                continue;
+            }
             try {
-                PORT = Integer.parseInt(args[0]);
+                PORT = Integer.parseInt(arg);
                 LOG.info("Port configured via command line: {}", PORT);
             } catch (NumberFormatException e) {
-                LOG.warn("Invalid port argument: {}. Using default port: {}", args[0], PORT);
+                LOG.warn("Invalid port argument: {}. Using default port: {}", arg, PORT);
             }
         }
 
-        // Create thread pool for better performance
-        ExecutorService threadPool = Executors.newFixedThreadPool(MAX_THREADS);
+        if (virtualThreadsRequested) {
+            useVirtualThreads();
+        }
+        EntityScanner.setScanCache(scanCache);
+        if (scanCache != null) {
+            LOG.info("Entity scan results cached in {}", scanCache.getDirectory());
+        }
+        HibernateManager.configureRegistry(maxFactories, factoryIdleMs);
+        HibernateManager.startIdleEviction();
+        if (watchEntities) {
+            HibernateManager.startEntityWatcher(ENTITY_RELOAD_DEBOUNCE_MS);
+        }
+        LOG.info("Keeping up to {} SessionFactories, closed after {} minutes idle",
+            maxFactories, TimeUnit.MILLISECONDS.toMinutes(factoryIdleMs));
+        if (argsConfig != null) {
+            preload.add(argsConfig);
+        }
+        if (!preload.isEmpty()) {
+            // Built in the background; the server accepts connections meanwhile
+            Preloader.start(preload);
+        }
+
+        if (blockingIo) {
+            runBlocking();
+            return;
+        }
+
+        try {
+            NioServer server = new NioServer(PORT, lanes);
+            LOG.info("Server started on port {}", PORT);
+            LOG.info("Query Tester Server ready to receive connections");
+            server.run();
+        } catch (Exception e) {
+            LOG.error("Error starting server: {}", e.getMessage(), e);
+            requestPool.shutdown();
+            interactivePool.shutdown();
+        }
+    }
+
+    /**
+     * Sets one field of the configuration given on the command line; false for an unknown argument.
+     * Throws IllegalArgumentException for a flag that needs a value and was given none.
+     */
+    static boolean applyConfigArgument(Preloader.Config config, String arg) {
+        int equals = arg.indexOf('=');
+        String name = equals < 0 ? arg : arg.substring(0, equals);
+        String value = equals < 0 ? null : arg.substring(equals + 1);
+        if (value == null && CONFIG_FLAGS_WITH_VALUE.contains(name)) {
+            throw new IllegalArgumentException(name + " needs a value, as in " + name + "=...");
+        }
+        switch (name) {
+            case "--db-url":
+                config.dbConfig.put("url", value);
+                return true;
+            case "--db-username":
+                config.dbConfig.put("username", value);
+                return true;
+            case "--db-password":
+                config.dbConfig.put("password", value);
+                return true;
+            case "--db-driver":
+                config.dbConfig.put("driver", value);
+                return true;
+            case "--entity-lib":
+                config.entityLibPath = value;
+                return true;
+            case "--entity-packages":
+                config.entityPackages = value.isEmpty() ? null : value.split(",");
+                return true;
+            case "--hibernate-version":
+                config.hibernateVersion = value;
+                return true;
+            case "--project-scan":
+                config.projectScan = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Switches request handling to virtual threads; Java 11-20 keeps the platform pool
+     */
+    private static void useVirtualThreads() {
+        ExecutorService virtualPool = WorkerPools.virtual();
+        if (virtualPool == null) {
+            LOG.warn("Falling back to {} platform worker threads", MAX_THREADS);
+            return;
+        }
+        requestPool.shutdown();
+        requestPool = virtualPool;
+        // No worker limit to queue for, so the estimate assumes the datasource slots
+        lanes = new Lanes(interactiveAdmission,
+            new Admission(requestPool, DatasourceLimiter.getMaxConcurrent(), MAX_QUEUED_REQUESTS));
+        virtualThreads = true;
+        LOG.info("Handling requests on virtual threads, at most {} concurrent queries per datasource",
+            DatasourceLimiter.getMaxConcurrent());
+    }
+
+    /**
+     * Legacy front end: one blocking reader thread per connection
+     */
+    private static void runBlocking() {
+        // Connections are long-lived, so they get their own threads and never take workers from requestPool
+        ExecutorService threadPool = virtualThreads ? WorkerPools.virtual() : Executors.newCachedThreadPool();
         
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            LOG.info("Server started on port {}", PORT);
+            LOG.info("Server started on port {} (blocking I/O)", PORT);
             LOG.info("Query Tester Server ready to receive connections");
             
             while (true) {
@@ -66,35 +270,58 @@ public class Server {
         } catch (Exception e) {
             LOG.error("Error starting server: {}", e.getMessage(), e);
             threadPool.shutdown();
+            requestPool.shutdown();
+            interactivePool.shutdown();
         }
     }
 
     private static void handleClient(Socket clientSocket) {
+        // One party for the reader plus one per tagged request still running
+        Phaser inFlight = new Phaser(1);
+        ResponseSink sink = null;
         try (
             // Use PrintWriter with UTF-8 for writing
             PrintWriter out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"), true);
             // Use BufferedReader with UTF-8 for reading
             BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"))
         ) {
-            String inputLine = in.readLine();
-            if (inputLine != null) {
+            // Identifies this connection's queries, so they are cancelled when it goes away
+            ResponseSink connection = line -> writeFrame(out, line);
+            sink = connection;
+            // The connection stays open until the client closes it
+            String inputLine;
+            while ((inputLine = in.readLine()) != null) {
+                if (inputLine.trim().isEmpty()) {
+                    continue;
+                }
                 LOG.debug("Request received: {}", inputLine);
+
+                Request request;
                 try {
-                    Request request = GSON.fromJson(inputLine, Request.class);
-                    QueryResultDTO response = handleRequest(request);
-                    String jsonResponse = GSON.toJson(response);
-                    LOG.debug("Response sent: {}", jsonResponse);
-                    out.println(jsonResponse); // Enviar com UTF-8
+                    request = parseRequest(inputLine);
                 } catch (Exception e) {
-                    LOG.error("Error processing request: {}", e.getMessage(), e);
-                    QueryResultDTO errorResponse = new QueryResultDTO();
-                    errorResponse.setStatus("ERROR");
-                    errorResponse.setMessage("Error processing request: " + e.getMessage());
-                    out.println(GSON.toJson(errorResponse));
+                    writeResponse(out, errorResponse(null, "Error processing request: " + e.getMessage()));
+                    continue;
+                }
+
+                if (request != null && request.id != null) {
+                    // Tagged requests are multiplexed: they run concurrently and answer as they complete
+                    inFlight.register();
+                    dispatch(lanes, request, connection, line -> writeResponse(out, line), inFlight::arriveAndDeregister);
+                } else {
+                    // Untagged requests keep the old behaviour: answered in order, one at a time
+                    writeResponse(out, processRequest(request, connection));
                 }
             }
+
+            // The client closed the connection: nobody will read the results of queries still running
+            ActiveQueries.cancelAll(connection);
+
+            // Let tagged requests wind down and write their responses before the socket is closed
+            inFlight.arriveAndAwaitAdvance();
         } catch (Exception e) {
             LOG.error("Error in client communication: {}", e.getMessage(), e);
+            ActiveQueries.cancelAll(sink);
         } finally {
             try {
                 clientSocket.close();
@@ -104,9 +331,259 @@ public class Server {
         }
     }
 
+    private static void writeResponse(PrintWriter out, String jsonResponse) {
+        // Several workers may answer on the same connection, so each line is written atomically
+        synchronized (out) {
+            out.println(jsonResponse); // Enviar com UTF-8
+        }
+    }
+
+    private static void writeFrame(PrintWriter out, String jsonLine) throws IOException {
+        writeResponse(out, jsonLine);
+        if (out.checkError()) {
+            throw new IOException("Client connection lost");
+        }
+    }
+
+    /**
+     * Parses one request line; malformed JSON is logged and rethrown
+     */
+    static Request parseRequest(String line) {
+        try {
+            Request request = GSON.fromJson(line, Request.class);
+            if (request != null) {
+                request.receivedNanos = System.nanoTime();
+            }
+            return request;
+        } catch (RuntimeException e) {
+            LOG.error("Error processing request: {}", e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a parsed request on this thread and returns the JSON line to send back, tagged with the request id.
+     * Streamed requests send their header and row frames through the sink first; the returned line is the trailer.
+     */
+    static String processRequest(Request request, ResponseSink sink) {
+        while (true) {
+            List<Object> key = SingleFlight.key(request);
+            SingleFlight.Flight flight = key != null ? SingleFlight.join(key) : null;
+            if (flight == null || flight.leader) {
+                return execute(request, sink, flight);
+            }
+            String shared = follow(flight, request, sink).join();
+            if (shared != null) {
+                return shared;
+            }
+        }
+    }
+
+    /**
+     * Schedules a tagged request in its lane and hands its response line to {@code send}, then runs
+     * {@code done}; both may be called on any thread. A query identical to one already in flight is
+     * not admitted: it waits for that execution's result without taking a worker or a datasource slot.
+     */
+    static void dispatch(Lanes lanes, Request request, ResponseSink sink, Consumer<String> send, Runnable done) {
+        List<Object> key = SingleFlight.key(request);
+        SingleFlight.Flight flight = key != null ? SingleFlight.join(key) : null;
+        if (flight != null && !flight.leader) {
+            follow(flight, request, sink).whenComplete((shared, error) -> {
+                if (shared == null && error == null) {
+                    // The leader could not answer for this request, which now runs on its own
+                    dispatch(lanes, request, sink, send, done);
+                    return;
+                }
+                try {
+                    send.accept(shared != null ? shared : errorResponse(request, "Error processing request: " + error.getMessage()));
+                } finally {
+                    done.run();
+                }
+            });
+            return;
+        }
+        boolean admitted = lanes.submit(request, () -> {
+            try {
+                send.accept(execute(request, sink, flight));
+            } finally {
+                done.run();
+            }
+        });
+        if (!admitted) {
+            if (flight != null) {
+                flight.finish(null);
+            }
+            try {
+                send.accept(busyResponse(request, lanes.retryAfterMs(request)));
+            } finally {
+                done.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the request on this thread; as the leader of {@code flight}, also answers the requests following it
+     */
+    private static String execute(Request request, ResponseSink sink, SingleFlight.Flight flight) {
+        Long queueWaitTime = request != null && request.receivedNanos != 0
+            ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.receivedNanos)
+            : null;
+        // The request's budget started when its line was read, so time spent queued counts too
+        Deadline.bind(request != null ? Deadline.of(request.receivedNanos, request.timeoutMs) : null);
+        SingleFlight.Shared shared = null;
+        try {
+            try {
+                shared = respond(request, sink);
+            } catch (Exception e) {
+                LOG.error("Error processing request: {}", e.getMessage(), e);
+                return errorResponse(request, "Error processing request: " + e.getMessage());
+            }
+            String jsonResponse = tag(shared.body, request, queueWaitTime);
+            LOG.debug("Response sent: {}", jsonResponse);
+            return jsonResponse;
+        } finally {
+            Deadline.bind(null);
+            if (flight != null) {
+                flight.finish(shared);
+            }
+        }
+    }
+
+    /**
+     * Waits, without holding a thread, for the execution {@code request} follows. The wait is listed by
+     * listActive and cancelled like a running query, and it ends at the request's own deadline.
+     * Completes with the response line, or with null when the request has to run the query itself.
+     */
+    private static CompletableFuture<String> follow(SingleFlight.Flight flight, Request request, ResponseSink sink) {
+        Long queueWaitTime = request.receivedNanos != 0
+            ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.receivedNanos)
+            : null;
+        CompletableFuture<SingleFlight.Shared> answer = new CompletableFuture<>();
+        ActiveQueries.ActiveQuery waiting = ActiveQueries.registerWaiting(request.id, request, sink,
+            () -> answer.complete(new SingleFlight.Shared(GSON.toJson(cancelledResponse()), false)));
+        Deadline deadline = Deadline.of(request.receivedNanos, request.timeoutMs);
+        if (deadline != null) {
+            // The timer is cancelled as soon as the answer completes some other way
+            answer.completeOnTimeout(new SingleFlight.Shared(GSON.toJson(timeoutResponse(
+                    new Deadline.ExceededException(Deadline.Phase.EXECUTION, request.timeoutMs))), false),
+                deadline.remainingMs(), TimeUnit.MILLISECONDS);
+        }
+        flight.result().thenAccept(shared -> answer.complete(shared != null && shared.shareable ? shared : null));
+        return answer.thenApply(shared -> {
+            waiting.close();
+            if (shared == null) {
+                return null;
+            }
+            LOG.debug("Answered by a running execution of the same query");
+            return tag(shared.body, request, queueWaitTime);
+        });
+    }
+
+    /**
+     * Handles the request and serializes the response without the fields that differ per request
+     */
+    private static SingleFlight.Shared respond(Request request, ResponseSink sink) {
+        QueryResultDTO response;
+        try {
+            Deadline.enter(Deadline.Phase.QUEUE);
+            response = handleRequest(request, sink);
+            if (!"TIMEOUT".equals(response.getStatus())) {
+                Deadline.enter(Deadline.Phase.RESPONSE);
+            }
+        } catch (Deadline.ExceededException e) {
+            response = timeoutResponse(e);
+        }
+        boolean shareable = !"TIMEOUT".equals(response.getStatus()) && !"CANCELLED".equals(response.getStatus());
+        return new SingleFlight.Shared(GSON.toJson(response), shareable);
+    }
+
+    /**
+     * Adds the request id and queue wait to a serialized response, which may be shared with other requests
+     */
+    private static String tag(String body, Request request, Long queueWaitTime) {
+        StringBuilder fields = new StringBuilder();
+        if (request != null && request.id != null) {
+            fields.append("\"requestId\":").append(GSON.toJson(request.id)).append(',');
+        }
+        if (queueWaitTime != null) {
+            fields.append("\"queueWaitTime\":").append(queueWaitTime).append(',');
+        }
+        return fields.length() == 0 ? body : "{" + fields + body.substring(1);
+    }
+
+    private static QueryResultDTO cancelledResponse() {
+        QueryResultDTO response = new QueryResultDTO();
+        response.setStatus("CANCELLED");
+        response.setMessage("Query cancelled");
+        return response;
+    }
+
+    private static QueryResultDTO timeoutResponse(Deadline.ExceededException e) {
+        LOG.warn(e.getMessage());
+        QueryResultDTO response = new QueryResultDTO();
+        response.setStatus("TIMEOUT");
+        response.setTimedOutPhase(e.phase.name());
+        response.setMessage(e.getMessage());
+        return response;
+    }
+
+    static String errorResponse(Request request, String message) {
+        QueryResultDTO errorResponse = new QueryResultDTO();
+        errorResponse.setStatus("ERROR");
+        errorResponse.setMessage(message);
+        if (request != null) {
+            errorResponse.setRequestId(request.id);
+        }
+        return GSON.toJson(errorResponse);
+    }
+
+    static String busyResponse(Request request, long retryAfterMs) {
+        QueryResultDTO busy = new QueryResultDTO();
+        busy.setStatus("BUSY");
+        busy.setMessage("Server busy, too many queued requests; retry after " + retryAfterMs + " ms");
+        busy.setRetryAfterMs(retryAfterMs);
+        if (request != null) {
+            busy.setRequestId(request.id);
+        }
+        return GSON.toJson(busy);
+    }
+
+    /**
+     * Replaces the lanes requests are scheduled on and returns the previous ones; lets tests run
+     * tagged requests on their own thread
+     */
+    static Lanes setLanes(Lanes replacement) {
+        Lanes previous = lanes;
+        lanes = replacement;
+        return previous;
+    }
+
+    /**
+     * The datasource whose bulkhead a request waits in, or null for requests that run no query
+     */
+    static String datasourceOf(Request request) {
+        if (request == null || request.command == null) {
+            return null;
+        }
+        switch (request.command) {
+            case "executeQuery":
+                return DatasourceLimiter.datasourceKey(request.dbConfig);
+            case "fetchNext":
+                ResultCursors.Cursor cursor = request.cursor != null ? ResultCursors.get(request.cursor) : null;
+                return cursor != null ? DatasourceLimiter.datasourceKey(cursor.request.dbConfig) : null;
+            default:
+                return null;
+        }
+    }
+
     private static QueryResultDTO handleRequest(Request request) {
+        return handleRequest(request, null);
+    }
+
+    private static QueryResultDTO handleRequest(Request request, ResponseSink sink) {
         QueryResultDTO response = new QueryResultDTO();
-        if (request == null || request.command == null || request.query == null) {
+        if (request == null || request.command == null
+                || (request.query == null && !COMMANDS_WITHOUT_QUERY.contains(request.command))) {
             response.setStatus("ERROR");
             response.setMessage("Invalid request: command or query missing");
             return response;
@@ -115,32 +592,41 @@ public class Server {
         try {
             switch (request.command) {
                 case "executeQuery":
-                    HibernateManager.initialize(
-                        request.dbConfig, 
-                        request.entityLibPath, 
-                        request.entityPackages, 
-                        request.projectScan, 
-                        request.hibernateVersion
-                    );
-                    
-                    // Define fields to include in response, if specified
-                    Set<String> fieldsToInclude = request.fieldsToInclude != null 
-                        ? new HashSet<>(Arrays.asList(request.fieldsToInclude)) 
-                        : null;
-                    
-                    if (request.isNative) {
-                        LOG.info("Executing native SQL query: {}", request.query);
-                        response = QueryExecutor.executeNativeSql(request.query, request.params);
-                    } else {
-                        LOG.info("Executing JPQL query: {}", request.query);
-                        response = QueryExecutor.executeJpql(request.query, request.params, fieldsToInclude);
+                    Deadline.enter(Deadline.Phase.INIT);
+                    try (ActiveQueries.ActiveQuery active = ActiveQueries.register(request.id, request, sink);
+                         DatasourceLimiter.Permit permit = DatasourceLimiter.acquire(request.dbConfig);
+                         HibernateManager.BoundLease factory = initialize(request)) {
+                        response = request.stream && sink != null
+                            ? streamQuery(request, sink)
+                            : executeQuery(request);
                     }
                     break;
+                case "fetchNext":
+                    response = fetchNext(request, sink);
+                    break;
+                case "reloadEntities":
+                    response = reloadEntities(request);
+                    break;
+                case "status":
+                    response = status();
+                    break;
+                case "listActive":
+                    response = listActive();
+                    break;
+                case "cancelQuery":
+                    response = cancelQuery(request);
+                    break;
                 default:
                     response.setStatus("ERROR");
                     response.setMessage("Unknown command: " + request.command);
             }
+        } catch (Deadline.ExceededException e) {
+            // Answered by processRequest with the phase that ran out of time
+            throw e;
         } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             response.setStatus("ERROR");
             response.setMessage("Error executing command: " + e.getMessage());
             LOG.error("Error executing command {}: {}", request.command, e.getMessage(), e);
@@ -148,7 +634,174 @@ public class Server {
         return response;
     }
 
+    private static QueryResultDTO executeQuery(Request request) {
+        // Define fields to include in response, if specified
+        Set<String> fieldsToInclude = request.fieldsToInclude != null 
+            ? new HashSet<>(Arrays.asList(request.fieldsToInclude)) 
+            : null;
+        
+        QueryOptions options = queryOptions(request);
+        Pagination.Page page = request.pageSize > 0 ? new Pagination.Page(request.pageSize) : null;
+        options.setPage(page);
+        
+        QueryResultDTO result;
+        if (request.isNative) {
+            LOG.info("Executing native SQL query: {}", request.query);
+            result = QueryExecutor.executeNativeSql(request.query, request.params, options);
+        } else {
+            LOG.info("Executing JPQL query: {}", request.query);
+            result = QueryExecutor.executeJpql(request.query, request.params, fieldsToInclude, options);
+        }
+
+        if (page != null && page.hasMore() && "SUCCESS".equals(result.getStatus())) {
+            result.setCursor(ResultCursors.open(request, page));
+        }
+        return result;
+    }
+
+    private static QueryResultDTO fetchNext(Request request, ResponseSink sink) throws InterruptedException {
+        ResultCursors.Cursor cursor = request.cursor != null ? ResultCursors.get(request.cursor) : null;
+        if (cursor == null) {
+            QueryResultDTO response = new QueryResultDTO();
+            response.setStatus("ERROR");
+            response.setMessage("Unknown or expired cursor: " + request.cursor);
+            return response;
+        }
+
+        Request original = cursor.request;
+        // Pages of one cursor are read one after another even if the client asks for them concurrently
+        cursor.lock.lockInterruptibly();
+        try {
+            Deadline.enter(Deadline.Phase.INIT);
+            try (ActiveQueries.ActiveQuery active = ActiveQueries.register(request.id, original, sink);
+                 DatasourceLimiter.Permit permit = DatasourceLimiter.acquire(original.dbConfig);
+                 HibernateManager.BoundLease factory = initialize(original)) {
+                Set<String> fieldsToInclude = original.fieldsToInclude != null
+                    ? new HashSet<>(Arrays.asList(original.fieldsToInclude))
+                    : null;
+                QueryOptions options = queryOptions(original).setPage(cursor.page);
+
+                LOG.info("Fetching next page of cursor {}", request.cursor);
+                QueryResultDTO result = original.isNative
+                    ? QueryExecutor.executeNativeSql(original.query, original.params, options)
+                    : QueryExecutor.executeJpql(original.query, original.params, fieldsToInclude, options);
+
+                if (cursor.page.hasMore() && "SUCCESS".equals(result.getStatus())) {
+                    result.setCursor(request.cursor);
+                } else {
+                    ResultCursors.close(request.cursor);
+                }
+                return result;
+            }
+        } finally {
+            cursor.lock.unlock();
+        }
+    }
+
+    private static QueryResultDTO streamQuery(Request request, ResponseSink sink) {
+        Set<String> fieldsToInclude = request.fieldsToInclude != null
+            ? new HashSet<>(Arrays.asList(request.fieldsToInclude))
+            : null;
+        QueryOptions options = queryOptions(request);
+
+        // Frames are serialized one chunk at a time and written as soon as they are ready
+        QueryExecutor.RowChunkListener listener = new QueryExecutor.RowChunkListener() {
+            @Override
+            public void onHeader(List<String> columns, long executionTime) throws IOException {
+                send(GSON.toJson(ResultFrameDTO.header(request.id, columns, executionTime)));
+            }
+
+            @Override
+            public void onRows(int sequence, List<Map<String, Object>> rows) throws IOException {
+                send(GSON.toJson(ResultFrameDTO.rows(request.id, sequence, rows)));
+            }
+
+            // Waiting for the client to take a frame counts as response time, then reading rows resumes
+            private void send(String frame) throws IOException {
+                Deadline.enter(Deadline.Phase.RESPONSE);
+                sink.send(frame);
+                Deadline.enter(Deadline.Phase.EXECUTION);
+            }
+        };
+
+        if (request.isNative) {
+            LOG.info("Streaming native SQL query: {}", request.query);
+            return QueryExecutor.streamNativeSql(request.query, request.params, options, listener);
+        } else {
+            LOG.info("Streaming JPQL query: {}", request.query);
+            return QueryExecutor.streamJpql(request.query, request.params, fieldsToInclude, options, listener);
+        }
+    }
+
+    private static QueryResultDTO reloadEntities(Request request) {
+        QueryResultDTO response = new QueryResultDTO();
+        CompletableFuture<Void> rebuild = HibernateManager.refresh(
+            request.dbConfig,
+            request.entityLibPath,
+            request.entityPackages,
+            request.projectScan,
+            request.hibernateVersion
+        );
+        if (rebuild == null) {
+            // Nothing to replace; the next query builds the factory anyway
+            response.setMessage("No SessionFactory for this configuration yet");
+        } else {
+            response.setMessage("Rebuilding SessionFactory; queries use the current one until it is ready");
+        }
+        return response;
+    }
+
+    private static QueryResultDTO listActive() {
+        QueryResultDTO response = new QueryResultDTO();
+        response.setResults(ActiveQueries.list());
+        response.setMessage(response.getResults().size() + " queries running");
+        return response;
+    }
+
+    private static QueryResultDTO cancelQuery(Request request) {
+        QueryResultDTO response = new QueryResultDTO();
+        if (ActiveQueries.cancel(request.queryId)) {
+            response.setMessage("Cancel requested for query " + request.queryId);
+        } else {
+            response.setStatus("ERROR");
+            response.setMessage("No running query " + request.queryId);
+        }
+        return response;
+    }
+
+    private static QueryResultDTO status() {
+        QueryResultDTO response = new QueryResultDTO();
+        List<Map<String, Object>> factories = Preloader.status();
+        long ready = factories.stream().filter(row -> "READY".equals(row.get("state"))).count();
+        response.setResults(factories);
+        response.setReady(ready == factories.size());
+        response.setMessage(ready + " of " + factories.size() + " SessionFactories ready");
+        return response;
+    }
+
+    /**
+     * Binds the request's SessionFactory to this thread until the returned lease is closed
+     */
+    private static HibernateManager.BoundLease initialize(Request request) {
+        return HibernateManager.initialize(
+            request.dbConfig,
+            request.entityLibPath,
+            request.entityPackages,
+            request.projectScan,
+            request.hibernateVersion
+        );
+    }
+
+    private static QueryOptions queryOptions(Request request) {
+        return QueryOptions.defaults()
+            .setChunkSize(request.chunkSize)
+            .setFetchSize(request.fetchSize)
+            .setSessionClearInterval(request.sessionClearInterval)
+            .setReadOnly(request.readOnly);
+    }
+
     static class Request {
+        String id; // Optional; when present the response is tagged with it and may arrive out of order
         String command;
         String query;
         Map<String, String> dbConfig;
@@ -159,5 +812,15 @@ public class Server {
         Map<String, Object> params;
         String[] fieldsToInclude;
         boolean isNative; 
+        boolean stream; // Send rows as header/rows/trailer frames instead of one response
+        int chunkSize; // Rows per frame when streaming; 0 uses the default
+        Integer fetchSize; // Read through a JDBC cursor with this fetch size
+        int sessionClearInterval; // Rows between Session.clear() calls on the cursor path; 0 uses the default
+        int pageSize; // Return at most this many rows plus a cursor for fetchNext; 0 returns everything
+        String cursor; // fetchNext: token from the previous page
+        String queryId; // cancelQuery: id of a running query, as reported by listActive
+        Boolean readOnly; // Run in a read-only Session and transaction; null means read-only for SELECT queries
+        long timeoutMs; // Time budget from when the request is read to its response; 0 means no deadline
+        transient long receivedNanos; // When the request line was read
     }
 }
\ No newline at end of file
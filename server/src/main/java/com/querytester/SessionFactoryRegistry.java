@@ -0,0 +1,415 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * SessionFactories by configuration. The registry keeps at most {@code maxEntries} of them and
+ * closes the least recently used, and any left idle for {@code idleTimeoutMs}. Callers hold a
+ * {@link Lease} while they use a factory; a replaced or evicted factory is only closed once its
+ * last lease is released, so a running query never sees it closed.
+ *
+ * <p>Factories are built on a small builder pool, once per configuration however many requests
+ * ask for it at the same time. A {@link #refresh rebuild} keeps serving the current factory and
+ * swaps the new one in when it is ready.
+ */
+final class SessionFactoryRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionFactoryRegistry.class);
+    private static final int BUILDER_THREADS = 2;
+
+    private final int maxEntries;
+    private final long idleTimeoutMs;
+    private final Consumer<SessionFactory> closer;
+    private final ExecutorService builders;
+    // Access order, so iteration starts with the least recently used slot
+    private final LinkedHashMap<FactoryKey, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    // Same slots, for lookups that must not count as a use (status polls, refreshes, build bookkeeping)
+    private final Map<FactoryKey, Slot> index = new HashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    SessionFactoryRegistry(int maxEntries, long idleTimeoutMs, Consumer<SessionFactory> closer) {
+        this(maxEntries, idleTimeoutMs, closer, builderPool());
+    }
+
+    SessionFactoryRegistry(int maxEntries, long idleTimeoutMs, Consumer<SessionFactory> closer, ExecutorService builders) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Registry must hold at least one SessionFactory");
+        }
+        this.maxEntries = maxEntries;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.closer = closer;
+        this.builders = builders;
+    }
+
+    /**
+     * Identifies a SessionFactory: every connection setting plus what decides its entity classes
+     */
+    static final class FactoryKey {
+        private final Map<String, String> dbConfig;
+        private final String entityLibPath;
+        private final List<String> entityPackages;
+        private final boolean projectScan;
+        private final String hibernateVersion;
+
+        FactoryKey(Map<String, String> dbConfig, String entityLibPath, String[] entityPackages,
+                   boolean projectScan, String hibernateVersion) {
+            this.dbConfig = dbConfig != null ? new TreeMap<>(dbConfig) : Collections.emptyMap();
+            this.entityLibPath = entityLibPath;
+            this.entityPackages = entityPackages != null ? Arrays.asList(entityPackages.clone()) : Collections.emptyList();
+            this.projectScan = projectScan;
+            this.hibernateVersion = hibernateVersion;
+        }
+
+        String getUrl() {
+            return dbConfig.get("url");
+        }
+
+        String getUsername() {
+            return dbConfig.get("username");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FactoryKey)) return false;
+            FactoryKey other = (FactoryKey) o;
+            return projectScan == other.projectScan
+                && dbConfig.equals(other.dbConfig)
+                && Objects.equals(entityLibPath, other.entityLibPath)
+                && entityPackages.equals(other.entityPackages)
+                && Objects.equals(hibernateVersion, other.hibernateVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dbConfig, entityLibPath, entityPackages, projectScan, hibernateVersion);
+        }
+
+        @Override
+        public String toString() {
+            // No password in logs
+            return dbConfig.get("url") + " as " + dbConfig.get("username") + " (Hibernate " + hibernateVersion
+                + ", entities " + entityLibPath + " " + entityPackages + ")";
+        }
+    }
+
+    /**
+     * One built SessionFactory and the leases on it
+     */
+    private static final class Entry {
+        final SessionFactory factory;
+        int leases;
+        boolean retired; // Replaced or evicted; closed when the last lease is released
+
+        Entry(SessionFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * A configuration's place in the registry: its current factory and the build in progress, if any
+     */
+    private static final class Slot {
+        final FactoryKey key;
+        final Supplier<SessionFactory> builder;
+        Entry current;
+        CompletableFuture<Entry> building;
+        long lastUsed = System.currentTimeMillis();
+
+        Slot(FactoryKey key, Supplier<SessionFactory> builder) {
+            this.key = key;
+            this.builder = builder;
+        }
+
+        boolean isBuilding() {
+            return building != null && !building.isDone();
+        }
+    }
+
+    /**
+     * Use of a registered SessionFactory; closing the lease gives it back
+     */
+    final class Lease implements AutoCloseable {
+        private final Slot slot;
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Slot slot, Entry entry) {
+            this.slot = slot;
+            this.entry = entry;
+        }
+
+        SessionFactory getSessionFactory() {
+            return entry.factory;
+        }
+
+        FactoryKey getKey() {
+            return slot.key;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(slot, entry);
+            }
+        }
+    }
+
+    /**
+     * Leases the factory for {@code key}. When none is built yet, {@code builder} runs on the builder
+     * pool, once for all callers asking for the same key, and the caller waits for it.
+     */
+    Lease acquire(FactoryKey key, Supplier<SessionFactory> builder) {
+        while (true) {
+            CompletableFuture<Entry> build;
+            synchronized (this) {
+                Slot slot = slots.get(key);
+                if (slot != null && slot.current != null) {
+                    return lease(slot, slot.current);
+                }
+                if (slot == null) {
+                    slot = new Slot(key, builder);
+                    register(slot);
+                }
+                if (slot.building == null || slot.building.isDone()) {
+                    slot.building = startBuild(slot);
+                } else {
+                    LOG.info("Waiting for SessionFactory build already running for {}", key);
+                }
+                build = slot.building;
+            }
+            await(build);
+            // Loop: the new factory is leased under the lock, or built again if it was evicted meanwhile
+        }
+    }
+
+    /**
+     * Starts building the factory for {@code key} on the builder pool unless it is registered already,
+     * without leasing it. Requests for the key meanwhile wait for this build. The future completes when
+     * the factory is ready; an unused preloaded factory is evicted like any other idle one.
+     */
+    synchronized CompletableFuture<Void> prebuild(FactoryKey key, Supplier<SessionFactory> builder) {
+        Slot slot = index.get(key);
+        if (slot == null) {
+            slot = new Slot(key, builder);
+            register(slot);
+        } else if (slot.current != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (slot.building == null || slot.building.isDone()) {
+            slot.building = startBuild(slot);
+        }
+        return slot.building.thenApply(entry -> null);
+    }
+
+    /**
+     * Rebuilds the factory for {@code key} in the background. Requests keep using the current factory
+     * until the new one is swapped in; the old one is closed after its last lease. Returns null when
+     * the configuration is not registered.
+     */
+    synchronized CompletableFuture<Void> refresh(FactoryKey key) {
+        Slot slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (!slot.isBuilding()) {
+            slot.building = startBuild(slot);
+        }
+        return slot.building.thenApply(entry -> null);
+    }
+
+    synchronized boolean isReady(FactoryKey key) {
+        Slot slot = index.get(key);
+        return slot != null && slot.current != null;
+    }
+
+    synchronized List<FactoryKey> keys() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    /**
+     * Closes factories idle for longer than the timeout; also runs periodically once {@link #startSweeper()} is called
+     */
+    void evictIdle() {
+        List<SessionFactory> toClose;
+        synchronized (this) {
+            toClose = evict(System.currentTimeMillis());
+        }
+        toClose.forEach(this::close);
+    }
+
+    synchronized void startSweeper() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-factory-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMs / 2, TimeUnit.MINUTES.toMillis(1)));
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized int size() {
+        return slots.size();
+    }
+
+    private CompletableFuture<Entry> startBuild(Slot slot) {
+        LOG.info("Building SessionFactory for {}", slot.key);
+        return CompletableFuture.supplyAsync(slot.builder, builders)
+            .handle((factory, error) -> finishBuild(slot, factory, error));
+    }
+
+    /**
+     * Installs a finished build as the slot's current factory, retiring the one it replaces
+     */
+    private Entry finishBuild(Slot slot, SessionFactory factory, Throwable error) {
+        List<SessionFactory> toClose = new ArrayList<>();
+        Entry entry;
+        synchronized (this) {
+            if (error != null) {
+                if (slot.current == null) {
+                    // Nothing to fall back on; the next request for this configuration tries again
+                    unregister(slot);
+                } else {
+                    LOG.warn("Rebuild failed for {}, keeping the current SessionFactory", slot.key);
+                }
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+
+            entry = new Entry(factory);
+            if (index.get(slot.key) != slot) {
+                // Evicted while building
+                entry.retired = true;
+                toClose.add(factory);
+            } else {
+                Entry previous = slot.current;
+                slot.current = entry;
+                slot.lastUsed = System.currentTimeMillis();
+                if (previous != null) {
+                    LOG.info("Swapped in rebuilt SessionFactory for {}", slot.key);
+                    toClose.addAll(retire(previous));
+                }
+                toClose.addAll(evict(System.currentTimeMillis()));
+            }
+        }
+        toClose.forEach(this::close);
+        return entry;
+    }
+
+    private static void await(CompletableFuture<Entry> build) {
+        // A request with a deadline stops waiting when it runs out; the build goes on for later requests
+        Deadline deadline = Deadline.current();
+        try {
+            if (deadline == null) {
+                build.get();
+            } else {
+                build.get(deadline.remainingMs(), TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            throw deadline.exceeded();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for SessionFactory", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                ? e.getCause().getCause()
+                : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("SessionFactory build failed", cause);
+        }
+    }
+
+    private void register(Slot slot) {
+        slots.put(slot.key, slot);
+        index.put(slot.key, slot);
+    }
+
+    private void unregister(Slot slot) {
+        slots.remove(slot.key, slot);
+        index.remove(slot.key, slot);
+    }
+
+    private Lease lease(Slot slot, Entry entry) {
+        entry.leases++;
+        slot.lastUsed = System.currentTimeMillis();
+        return new Lease(slot, entry);
+    }
+
+    private void release(Slot slot, Entry entry) {
+        boolean close;
+        synchronized (this) {
+            entry.leases--;
+            slot.lastUsed = System.currentTimeMillis();
+            close = entry.retired && entry.leases == 0;
+        }
+        if (close) {
+            close(entry.factory);
+        }
+    }
+
+    private List<SessionFactory> retire(Entry entry) {
+        entry.retired = true;
+        return entry.leases == 0 ? Collections.singletonList(entry.factory) : Collections.emptyList();
+    }
+
+    /**
+     * Removes idle slots and, beyond the size limit, the least recently used ones. Slots still being
+     * built for the first time are left alone. Returns the factories that can be closed now.
+     */
+    private List<SessionFactory> evict(long now) {
+        List<SessionFactory> toClose = new ArrayList<>();
+        int excess = slots.size() - maxEntries;
+        Iterator<Slot> it = slots.values().iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (slot.current == null) {
+                continue;
+            }
+            boolean idle = slot.current.leases == 0 && !slot.isBuilding() && now - slot.lastUsed > idleTimeoutMs;
+            if (excess > 0 || idle) {
+                it.remove();
+                index.remove(slot.key, slot);
+                excess--;
+                LOG.info("Evicting SessionFactory for {} ({})", slot.key, idle ? "idle" : "least recently used");
+                toClose.addAll(retire(slot.current));
+            }
+        }
+        return toClose;
+    }
+
+    private void close(SessionFactory factory) {
+        try {
+            closer.accept(factory);
+        } catch (RuntimeException e) {
+            LOG.warn("Error closing SessionFactory: {}", e.getMessage(), e);
+        }
+    }
+
+    private static ExecutorService builderPool() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(BUILDER_THREADS, r -> {
+            Thread thread = new Thread(r, "session-factory-builder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package com.querytester;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.pool.HikariPool;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Hibernate connection provider backed by the {@link ConnectionPools} pool of the factory's datasource.
+ * Expects the request's dbConfig under {@link #DB_CONFIG}; stopping the provider releases the pool.
+ */
+public final class SharedPoolConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+    static final String DB_CONFIG = "query_tester.db_config";
+
+    private HikariDataSource dataSource;
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void configure(Map settings) {
+        Map<String, String> dbConfig = (Map<String, String>) settings.get(DB_CONFIG);
+        if (dbConfig == null) {
+            throw new IllegalStateException("Setting " + DB_CONFIG + " is required");
+        }
+        dataSource = ConnectionPools.acquire(dbConfig);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Deadline deadline = Deadline.current();
+        // HikariDataSource only takes the pool-wide connectionTimeout. Its MXBean is the HikariPool itself,
+        // whose public getConnection(long) is what HikariDataSource.getConnection() calls with that timeout.
+        // Should a Hikari version stop returning the pool there, checkouts fall back to connectionTimeout.
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (deadline == null || !(pool instanceof HikariPool)) {
+            return dataSource.getConnection();
+        }
+        // Waits for a free connection no longer than the request has left
+        long timeout = Math.min(dataSource.getConnectionTimeout(), Math.max(1, deadline.remainingMs()));
+        return ((HikariPool) pool).getConnection(timeout);
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        if (dataSource != null) {
+            ConnectionPools.release(dataSource);
+            dataSource = null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return ConnectionProvider.class.equals(unwrapType)
+            || SharedPoolConnectionProvider.class.isAssignableFrom(unwrapType)
+            || DataSource.class.isAssignableFrom(unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (ConnectionProvider.class.equals(unwrapType) || SharedPoolConnectionProvider.class.isAssignableFrom(unwrapType)) {
+            return (T) this;
+        }
+        if (DataSource.class.isAssignableFrom(unwrapType)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+}
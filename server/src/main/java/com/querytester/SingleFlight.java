@@ -0,0 +1,139 @@
+package com.querytester;
+
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces identical queries that run at the same time. The first request for a key leads: it goes
+ * through admission and executes. Requests arriving before it finishes follow it: they wait for that
+ * execution, without a worker or a datasource slot, and get the same serialized response tagged with
+ * their own id. Nothing is kept once the execution finishes, so results are never stale.
+ *
+ * <p>Only complete, unstreamed SELECT results are shared: streamed and paged responses carry
+ * per-request state, and statements that change data must run once per request. A leader that was
+ * rejected, cancelled or ran out of time does not answer for its followers; they run the query themselves.
+ */
+final class SingleFlight {
+    private static final Gson GSON = new Gson();
+
+    /**
+     * A finished execution: the response without request-specific fields, and whether followers may use it
+     */
+    static final class Shared {
+        final String body;
+        final boolean shareable;
+
+        Shared(String body, boolean shareable) {
+            this.body = body;
+            this.shareable = shareable;
+        }
+    }
+
+    /**
+     * One request's part in an execution of its key: the leader runs it and must {@link #finish} it,
+     * followers wait for its {@link #result}
+     */
+    static final class Flight {
+        private final List<Object> key;
+        private final CompletableFuture<Shared> result;
+        final boolean leader;
+
+        private Flight(List<Object> key, CompletableFuture<Shared> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        /**
+         * Completes when the leader finishes, with its result, or null if it has none
+         */
+        CompletableFuture<Shared> result() {
+            return result;
+        }
+
+        /**
+         * Ends the leader's execution and answers its followers; null when it failed without a response
+         */
+        void finish(Shared shared) {
+            if (leader) {
+                IN_FLIGHT.remove(key, result);
+                result.complete(shared);
+            }
+        }
+    }
+
+    private static final Map<List<Object>, CompletableFuture<Shared>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * The coalescing key of {@code request}, or null if it must run on its own: normalized query text,
+     * parameters, requested fields and the factory configuration it runs against. A SELECT explicitly
+     * run read-write may take locks or call functions with side effects, so it is never shared.
+     */
+    static List<Object> key(Server.Request request) {
+        if (request == null || !"executeQuery".equals(request.command) || request.stream || request.pageSize > 0
+                || Boolean.FALSE.equals(request.readOnly) || !QueryOptions.isSelect(request.query)) {
+            return null;
+        }
+        return Arrays.asList(
+            normalize(request.query),
+            request.isNative,
+            request.params != null ? GSON.toJson(new TreeMap<>(request.params)) : null,
+            request.fieldsToInclude != null ? new TreeSet<>(Arrays.asList(request.fieldsToInclude)) : null,
+            request.fetchSize,
+            new SessionFactoryRegistry.FactoryKey(request.dbConfig, request.entityLibPath, request.entityPackages,
+                request.projectScan, request.hibernateVersion));
+    }
+
+    /**
+     * Leads a new execution of {@code key}, or follows the one already in flight
+     */
+    static Flight join(List<Object> key) {
+        CompletableFuture<Shared> own = new CompletableFuture<>();
+        CompletableFuture<Shared> running = IN_FLIGHT.putIfAbsent(key, own);
+        return running == null ? new Flight(key, own, true) : new Flight(key, running, false);
+    }
+
+    /**
+     * Collapses whitespace outside quoted literals and identifiers, so formatting differences coalesce.
+     * From the first comment on the text is kept as-is, since a line break ends a {@code --} comment.
+     */
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && (query.startsWith("--", i) || query.startsWith("/*", i))) {
+                if (space) {
+                    normalized.append(' ');
+                }
+                return normalized.append(query, i, query.length()).toString();
+            }
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+                continue;
+            }
+            if (space) {
+                normalized.append(' ');
+                space = false;
+            }
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+}
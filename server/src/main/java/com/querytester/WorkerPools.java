@@ -0,0 +1,45 @@
+package com.querytester;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executors that run request handling.
+ * The server is compiled for Java 11, so virtual threads are looked up reflectively
+ * and only used when the running JVM provides them (Java 21+).
+ */
+final class WorkerPools {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerPools.class);
+
+    private WorkerPools() {
+    }
+
+    /**
+     * Fixed pool of platform threads with a bounded queue; submissions beyond the queue are rejected
+     */
+    static ExecutorService platform(int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity));
+    }
+
+    /**
+     * One virtual thread per task, or {@code null} when the JVM does not support virtual threads
+     */
+    static ExecutorService virtual() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            LOG.warn("Virtual threads are not available on Java {}", System.getProperty("java.version"));
+            return null;
+        } catch (Exception e) {
+            LOG.warn("Could not create virtual thread executor: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -4,10 +4,27 @@ import java.util.List;
 import java.util.Map;
 
 public class QueryResultDTO {
+    private String requestId;
     private String status = "SUCCESS";
     private String message = "Query executed successfully";
     private long executionTime = 0;
     private List<Map<String, Object>> results;
+    private String frame; // "trailer" when this closes a streamed response, null otherwise
+    private Long totalRows; // Rows sent in a streamed response
+    private Boolean hasMore; // Set for paged results
+    private String cursor; // Token for fetchNext while hasMore is true
+    private Boolean ready; // Set by status: every registered SessionFactory is built and validated
+    private String timedOutPhase; // Set with status TIMEOUT: the phase that was running when the deadline passed
+    private Long queueWaitTime; // Milliseconds between reading the request and starting to handle it
+    private Long retryAfterMs; // Set with status BUSY: when the client may try again
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
 
     public String getStatus() {
         return status;
@@ -40,4 +57,68 @@ public class QueryResultDTO {
     public void setResults(List<Map<String, Object>> results) {
         this.results = results;
     }
-}
\ No newline at end of file
+
+    public String getFrame() {
+        return frame;
+    }
+
+    public void setFrame(String frame) {
+        this.frame = frame;
+    }
+
+    public Long getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(Long totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public Long getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    public void setQueueWaitTime(Long queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
+    public Long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    public void setRetryAfterMs(Long retryAfterMs) {
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public String getTimedOutPhase() {
+        return timedOutPhase;
+    }
+
+    public void setTimedOutPhase(String timedOutPhase) {
+        this.timedOutPhase = timedOutPhase;
+    }
+
+    public Boolean getReady() {
+        return ready;
+    }
+
+    public void setReady(Boolean ready) {
+        this.ready = ready;
+    }
+}
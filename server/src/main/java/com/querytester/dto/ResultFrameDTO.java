@@ -0,0 +1,59 @@
+package com.querytester.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One frame of a streamed response. A stream is a "header" frame, zero or more "rows" frames
+ * and a closing {@link QueryResultDTO} whose frame is "trailer".
+ */
+public class ResultFrameDTO {
+    private String requestId;
+    private String frame;
+    private List<String> columns;
+    private Long executionTime;
+    private Integer sequence;
+    private List<Map<String, Object>> rows;
+
+    public static ResultFrameDTO header(String requestId, List<String> columns, long executionTime) {
+        ResultFrameDTO header = new ResultFrameDTO();
+        header.requestId = requestId;
+        header.frame = "header";
+        header.columns = columns;
+        header.executionTime = executionTime;
+        return header;
+    }
+
+    public static ResultFrameDTO rows(String requestId, int sequence, List<Map<String, Object>> rows) {
+        ResultFrameDTO chunk = new ResultFrameDTO();
+        chunk.requestId = requestId;
+        chunk.frame = "rows";
+        chunk.sequence = sequence;
+        chunk.rows = rows;
+        return chunk;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getFrame() {
+        return frame;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public Long getExecutionTime() {
+        return executionTime;
+    }
+
+    public Integer getSequence() {
+        return sequence;
+    }
+
+    public List<Map<String, Object>> getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,72 @@
+package com.querytester;
+
+import com.querytester.dto.QueryResultDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActiveQueriesTest {
+
+    // Produto cartesiano que o H2 levaria minutos para contar
+    private static final String RUNAWAY_QUERY =
+        "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b WHERE a.X + b.X < 0";
+
+    @Test
+    void testCancelStopsRunningStatement() throws Exception {
+        Server.Request request = new Server.Request();
+        request.id = "slow";
+        request.query = RUNAWAY_QUERY;
+        request.isNative = true;
+        request.dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        Object connection = new Object();
+        // Fábrica construída antes, para que o tempo de espera abaixo seja todo de execução
+        initialize(request).close();
+
+        CompletableFuture<QueryResultDTO> running = CompletableFuture.supplyAsync(() -> {
+            try (ActiveQueries.ActiveQuery active = ActiveQueries.register(request.id, request, connection);
+                 HibernateManager.BoundLease lease = initialize(request)) {
+                return QueryExecutor.executeNativeSql(request.query, Collections.emptyMap());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Map<String, Object> row = awaitRunning(running);
+        assertEquals("slow", row.get("requestId"));
+        assertEquals(RUNAWAY_QUERY, row.get("query"));
+        assertEquals(true, row.get("isNative"));
+
+        // Deixa o statement começar e simula a queda da conexão do cliente
+        Thread.sleep(500);
+        assertEquals(1, ActiveQueries.cancelAll(connection));
+
+        // O statement é cancelado no banco, não só depois de terminar
+        QueryResultDTO result = running.get(5, TimeUnit.SECONDS);
+        assertEquals("CANCELLED", result.getStatus(), result.getMessage());
+        assertTrue(ActiveQueries.list().isEmpty());
+        assertFalse(ActiveQueries.cancel((String) row.get("queryId")));
+    }
+
+    private static HibernateManager.BoundLease initialize(Server.Request request) throws Exception {
+        return HibernateManager.initialize(request.dbConfig, QueryExecutorIntegrationTest.testClassesPath(),
+            new String[] {"com.querytester.testentities"}, false, "5.6.15.Final");
+    }
+
+    private static Map<String, Object> awaitRunning(CompletableFuture<?> running) throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            List<Map<String, Object>> active = ActiveQueries.list();
+            if (!active.isEmpty()) {
+                return active.get(0);
+            }
+            assertFalse(running.isDone(), "query finished before it could be cancelled");
+            Thread.sleep(20);
+        }
+        return fail("query was never registered");
+    }
+}
@@ -0,0 +1,105 @@
+package com.querytester;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionTest {
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        DatasourceLimiter.setMaxConcurrent(5);
+        workers.shutdownNow();
+    }
+
+    @Test
+    void testSlowDatasourceDoesNotHoldEveryWorker() throws Exception {
+        DatasourceLimiter.setMaxConcurrent(1);
+        Admission admission = new Admission(workers, 2, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger slowRuns = new AtomicInteger();
+
+        // Três pedidos ao banco lento: um executa, dois esperam sem ocupar um worker
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.submit("slow", () -> {
+                slowRuns.incrementAndGet();
+                started.countDown();
+                await(release);
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch fast = new CountDownLatch(1);
+        assertTrue(admission.submit("fast", fast::countDown));
+        assertTrue(fast.await(5, TimeUnit.SECONDS), "Outro datasource deveria ter um worker livre");
+        assertEquals(1, slowRuns.get());
+        assertEquals(2, admission.queued());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (slowRuns.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, slowRuns.get());
+        assertEquals(0, admission.queued());
+    }
+
+    @Test
+    void testRejectsWhenDatasourceQueueIsFull() {
+        DatasourceLimiter.setMaxConcurrent(1);
+        Admission admission = new Admission(workers, 2, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Um executando e dois (metade do limite) esperando
+            for (int i = 0; i < 3; i++) {
+                assertTrue(admission.submit("slow", () -> await(release)));
+            }
+            assertFalse(admission.submit("slow", () -> { }));
+            // Sem datasource o pedido ainda é aceito
+            assertTrue(admission.submit(null, () -> { }));
+
+            long retryAfter = admission.retryAfterMs();
+            assertTrue(retryAfter >= 100 && retryAfter <= 10_000, "retryAfterMs fora dos limites: " + retryAfter);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testRejectsWhenTotalQueueIsFull() throws Exception {
+        DatasourceLimiter.setMaxConcurrent(1);
+        Admission admission = new Admission(workers, 2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        try {
+            // Os dois workers ocupados, antes de enfileirar
+            assertTrue(admission.submit("a", () -> { started.countDown(); await(release); }));
+            assertTrue(admission.submit("b", () -> { started.countDown(); await(release); }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(admission.submit("a", () -> { }));
+            assertTrue(admission.submit("b", () -> { }));
+            assertEquals(2, admission.queued());
+            assertFalse(admission.submit("c", () -> { }));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.querytester;
+
+import com.querytester.testentities.Address;
+import com.querytester.testentities.Customer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static com.querytester.TestClassFiles.classFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassIndexTest {
+
+    private static File testClasses() throws Exception {
+        return new File(Customer.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    @Test
+    void testReadsAnnotationFromClassFile() throws Exception {
+        assertEquals(ClassIndex.Kind.ENTITY, ClassIndex.annotationOf(classFile(Customer.class)));
+        assertEquals(ClassIndex.Kind.EMBEDDABLE, ClassIndex.annotationOf(classFile(Address.class)));
+        // Sem anotação JPA
+        assertNull(ClassIndex.annotationOf(classFile(ClassIndexTest.class)));
+    }
+
+    @Test
+    void testScansDirectoryByPackage() throws Exception {
+        ClassIndex index = ClassIndex.scan(Collections.singletonList(testClasses()),
+            new String[] {"com.querytester.testentities"});
+
+        Map<String, ClassIndex.Kind> classes = index.classes();
+        assertEquals(4, classes.size());
+        assertEquals(ClassIndex.Kind.ENTITY, classes.get("com.querytester.testentities.Customer"));
+        assertEquals(ClassIndex.Kind.ENTITY, classes.get("com.querytester.testentities.PurchaseOrder"));
+        assertEquals(ClassIndex.Kind.EMBEDDABLE, classes.get("com.querytester.testentities.Address"));
+        // Só os arquivos do pacote são lidos
+        assertEquals(4, index.classFilesRead());
+    }
+
+    @Test
+    void testScansJar(@TempDir Path dir) throws Exception {
+        File jar = dir.resolve("entities.jar").toFile();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (Class<?> type : new Class<?>[] {Customer.class, Address.class, ClassIndexTest.class}) {
+                out.putNextEntry(new JarEntry(type.getName().replace('.', '/') + ".class"));
+                out.write(classFile(type));
+                out.closeEntry();
+            }
+            out.putNextEntry(new JarEntry("META-INF/MANIFEST.MF"));
+            out.write("Manifest-Version: 1.0\n".getBytes());
+            out.closeEntry();
+        }
+
+        ClassIndex index = ClassIndex.scan(Collections.singletonList(jar), null);
+
+        assertEquals(2, index.classes().size());
+        assertEquals(3, index.classFilesRead());
+        assertTrue(index.classes().containsKey("com.querytester.testentities.Customer"));
+        assertEquals(1, index.count(ClassIndex.Kind.EMBEDDABLE));
+    }
+
+    @Test
+    void testCachedDirectoryRereadsOnlyChangedFiles(@TempDir Path dir) throws Exception {
+        Path classes = dir.resolve("classes");
+        for (Class<?> type : new Class<?>[] {Customer.class, Address.class}) {
+            Path file = classes.resolve(type.getName().replace('.', '/') + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, classFile(type));
+        }
+        ScanCache cache = new ScanCache(dir.resolve("cache"));
+        String[] packages = {"com.querytester.testentities"};
+
+        assertEquals(2, ClassIndex.scan(Collections.singletonList(classes.toFile()), packages, cache).classFilesRead());
+
+        // Nada mudou: nenhum arquivo é lido de novo
+        ClassIndex cached = ClassIndex.scan(Collections.singletonList(classes.toFile()), packages, cache);
+        assertEquals(0, cached.classFilesRead());
+        assertEquals(ClassIndex.Kind.ENTITY, cached.classes().get("com.querytester.testentities.Customer"));
+        assertEquals(ClassIndex.Kind.EMBEDDABLE, cached.classes().get("com.querytester.testentities.Address"));
+
+        // Só a classe alterada é lida
+        Path changed = classes.resolve("com/querytester/testentities/Address.class");
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 5000));
+        ClassIndex rescanned = ClassIndex.scan(Collections.singletonList(classes.toFile()), packages, cache);
+        assertEquals(1, rescanned.classFilesRead());
+        assertEquals(2, rescanned.classes().size());
+    }
+
+    @Test
+    void testCachedJarIsNotReadAgain(@TempDir Path dir) throws Exception {
+        File jar = dir.resolve("entities.jar").toFile();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new JarEntry("com/querytester/testentities/Customer.class"));
+            out.write(classFile(Customer.class));
+            out.closeEntry();
+        }
+        ScanCache cache = new ScanCache(dir.resolve("cache"));
+
+        assertEquals(1, ClassIndex.scan(Collections.singletonList(jar), null, cache).classFilesRead());
+        ClassIndex cached = ClassIndex.scan(Collections.singletonList(jar), null, cache);
+        assertEquals(0, cached.classFilesRead());
+        assertTrue(cached.classes().containsKey("com.querytester.testentities.Customer"));
+
+        // Mesmo conteúdo com outro timestamp: reconhecido pelo hash
+        assertTrue(jar.setLastModified(jar.lastModified() + 5000));
+        assertEquals(0, ClassIndex.scan(Collections.singletonList(jar), null, cache).classFilesRead());
+    }
+
+    @Test
+    void testMergesRootsAndReportsDuplicates(@TempDir Path dir) throws Exception {
+        File jar = dir.resolve("shared.jar").toFile();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new JarEntry("com/querytester/testentities/Customer.class"));
+            out.write(classFile(Customer.class));
+            out.closeEntry();
+        }
+
+        ClassIndex index = ClassIndex.scan(Arrays.asList(testClasses(), jar, testClasses()),
+            new String[] {"com.querytester.testentities"});
+
+        // O diretório repetido é lido uma vez; Customer aparece nas duas raízes
+        assertEquals(4, index.classes().size());
+        assertEquals(5, index.classFilesRead());
+        assertEquals(Collections.singletonList("com.querytester.testentities.Customer"), index.duplicates());
+    }
+}
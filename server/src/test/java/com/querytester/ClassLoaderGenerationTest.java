@@ -0,0 +1,76 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassLoaderGenerationTest {
+
+    /**
+     * Compila uma entidade fora do classpath dos testes, para que só o loader da geração a encontre
+     */
+    private static Path compileEntity(Path dir) throws Exception {
+        Path source = dir.resolve("src/gen/Gadget.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package gen;\n"
+            + "@javax.persistence.Entity\n"
+            + "public class Gadget {\n"
+            + "    @javax.persistence.Id private Long id;\n"
+            + "    private String name;\n"
+            + "}\n").getBytes());
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"),
+            "-d", classes.toString(), source.toString()));
+        return classes;
+    }
+
+    @Test
+    void testClosedFactoryReleasesItsEntityClasses(@TempDir Path dir) throws Exception {
+        Path classes = compileEntity(dir);
+        Map<String, String> dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        dbConfig.put("url", "jdbc:h2:mem:generations");
+
+        WeakReference<ClassLoader> loader = buildAndClose(dbConfig, classes);
+
+        // Nada além da fábrica fechada segurava o loader: ele e suas classes podem ser coletados
+        for (int i = 0; i < 50 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(loader.get(), "class loader of a closed SessionFactory is still reachable");
+    }
+
+    private static WeakReference<ClassLoader> buildAndClose(Map<String, String> dbConfig, Path classes) throws Exception {
+        SessionFactoryRegistry.FactoryKey key = new SessionFactoryRegistry.FactoryKey(
+            dbConfig, classes.toString(), new String[] {"gen"}, false, "5.6.15.Final");
+        SessionFactory factory = HibernateManager.buildSessionFactory(key, dbConfig, classes.toString(),
+            new String[] {"gen"}, false, "5.6.15.Final");
+
+        Class<?> gadget = factory.getMetamodel().getEntities().iterator().next().getJavaType();
+        assertEquals("gen.Gadget", gadget.getName());
+        ClassLoader classLoader = gadget.getClassLoader();
+        assertTrue(classLoader instanceof URLClassLoader);
+        // A thread que construiu a fábrica não herda o loader das entidades
+        assertNotSame(classLoader, Thread.currentThread().getContextClassLoader());
+
+        HibernateManager.closeFactory(factory);
+
+        // O loader fechado não abre mais os arquivos da geração
+        URL resource = ((URLClassLoader) classLoader).findResource("gen/Gadget.class");
+        assertNull(resource);
+        return new WeakReference<>(classLoader);
+    }
+}
@@ -0,0 +1,169 @@
+package com.querytester;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolsTest {
+
+    private static SessionFactory build(Map<String, String> dbConfig, String... packages) throws Exception {
+        String entities = QueryExecutorIntegrationTest.testClassesPath();
+        SessionFactoryRegistry.FactoryKey key =
+            new SessionFactoryRegistry.FactoryKey(dbConfig, entities, packages, false, "5.6.15.Final");
+        return HibernateManager.buildSessionFactory(key, dbConfig, entities, packages, false, "5.6.15.Final");
+    }
+
+    private static HikariDataSource dataSource(SessionFactory sessionFactory) {
+        return (HikariDataSource) ((SessionFactoryImplementor) sessionFactory).getServiceRegistry()
+            .getService(ConnectionProvider.class)
+            .unwrap(DataSource.class);
+    }
+
+    @Test
+    void testFactoriesForTheSameDatasourceShareOnePool() throws Exception {
+        Map<String, String> dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        dbConfig.put("url", "jdbc:h2:mem:pools");
+        dbConfig.put("poolSize", "3");
+
+        SessionFactory all = build(dbConfig, "com.querytester.testentities");
+        // Pacote sem entidades; sem pacote nenhum a varredura incluiria brokenentities
+        SessionFactory other = build(dbConfig, "com.querytester.noentities");
+        HikariDataSource pool = dataSource(all);
+
+        assertSame(pool, dataSource(other));
+        assertEquals(3, pool.getMaximumPoolSize());
+
+        // A pool fica aberta enquanto alguma fábrica a usa
+        HibernateManager.closeFactory(all);
+        assertFalse(pool.isClosed());
+        HibernateManager.closeFactory(other);
+        assertTrue(pool.isClosed());
+    }
+
+    @Test
+    void testFailedMappingReleasesPool() throws Exception {
+        Map<String, String> dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        dbConfig.put("url", "jdbc:h2:mem:pools-broken");
+        int pools = ConnectionPools.size();
+
+        assertThrows(RuntimeException.class, () -> build(dbConfig, "com.querytester.brokenentities"));
+
+        // A pool aberta para ler os metadados do banco sai junto com o registro
+        assertEquals(pools, ConnectionPools.size());
+    }
+
+    /**
+     * Driver de um banco que não responde: a conexão espera até o teste liberar e então falha
+     */
+    public static final class UnreachableDriver implements Driver {
+        static final CountDownLatch CONNECTING = new CountDownLatch(1);
+        static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+        @Override
+        public Connection connect(String url, java.util.Properties info) throws SQLException {
+            CONNECTING.countDown();
+            try {
+                RELEASE.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new SQLException("Connection refused");
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:unreachable:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, java.util.Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+    @Test
+    void testUnreachableDatasourceDoesNotBlockOtherPools() throws Exception {
+        Map<String, String> unreachable = QueryExecutorIntegrationTest.dbConfig();
+        unreachable.put("url", "jdbc:unreachable:db");
+        unreachable.put("driver", UnreachableDriver.class.getName());
+        int pools = ConnectionPools.size();
+        CompletableFuture<HikariDataSource> opening = CompletableFuture.supplyAsync(() -> ConnectionPools.acquire(unreachable));
+        assertTrue(UnreachableDriver.CONNECTING.await(10, TimeUnit.SECONDS));
+
+        try {
+            // Enquanto a outra pool tenta conectar, esta abre sem esperar por ela
+            Map<String, String> dbConfig = QueryExecutorIntegrationTest.dbConfig();
+            dbConfig.put("url", "jdbc:h2:mem:pools-available");
+            HikariDataSource available = CompletableFuture.supplyAsync(() -> ConnectionPools.acquire(dbConfig))
+                .get(5, TimeUnit.SECONDS);
+            assertFalse(available.isClosed());
+            ConnectionPools.release(available);
+            assertTrue(available.isClosed());
+        } finally {
+            UnreachableDriver.RELEASE.countDown();
+        }
+
+        // A falha chega a quem abriu, e a pool não fica registrada
+        java.util.concurrent.ExecutionException e = assertThrows(java.util.concurrent.ExecutionException.class,
+            () -> opening.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RuntimeException, String.valueOf(e.getCause()));
+        assertEquals(pools, ConnectionPools.size());
+    }
+
+    @Test
+    void testPoolSettingsFromDbConfig() {
+        Map<String, String> dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        dbConfig.put("poolMinIdle", "20");
+        dbConfig.put("connectionTimeoutMs", "4000");
+        dbConfig.put("keepaliveMs", "60000");
+        dbConfig.put("validationTimeoutMs", "not a number");
+        dbConfig.put("connectionTestQuery", "SELECT 1");
+
+        HikariConfig config = ConnectionPools.config(dbConfig);
+
+        assertEquals(DatasourceLimiter.getMaxConcurrent(), config.getMaximumPoolSize());
+        // Nunca mais conexões ociosas que o tamanho da pool
+        assertEquals(config.getMaximumPoolSize(), config.getMinimumIdle());
+        assertEquals(4000, config.getConnectionTimeout());
+        assertEquals(60000, config.getKeepaliveTime());
+        assertEquals(ConnectionPools.DEFAULT_VALIDATION_TIMEOUT_MS, config.getValidationTimeout());
+        assertEquals("SELECT 1", config.getConnectionTestQuery());
+        assertEquals("org.h2.Driver", config.getDriverClassName());
+    }
+}
@@ -0,0 +1,70 @@
+package com.querytester;
+
+import com.google.gson.Gson;
+import com.querytester.dto.QueryResultDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineTest {
+
+    private final Gson gson = new Gson();
+
+    private Server.Request request(String query, long timeoutMs) throws Exception {
+        Server.Request request = new Server.Request();
+        request.id = "d1";
+        request.command = "executeQuery";
+        request.query = query;
+        request.isNative = true;
+        request.dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        request.entityLibPath = QueryExecutorIntegrationTest.testClassesPath();
+        request.entityPackages = new String[] {"com.querytester.testentities"};
+        request.hibernateVersion = "5.6.15.Final";
+        request.timeoutMs = timeoutMs;
+        return Server.parseRequest(gson.toJson(request));
+    }
+
+    @Test
+    void testStatementGetsRemainingBudget() throws Exception {
+        // Fábrica construída antes, para que o orçamento seja gasto na execução
+        assertEquals("SUCCESS", gson.fromJson(Server.processRequest(request("SELECT 1", 0), null),
+            QueryResultDTO.class).getStatus());
+
+        long start = System.nanoTime();
+        QueryResultDTO response = gson.fromJson(Server.processRequest(request(
+            "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b WHERE a.X + b.X < 0", 1500), null),
+            QueryResultDTO.class);
+
+        assertEquals("TIMEOUT", response.getStatus(), response.getMessage());
+        assertEquals("EXECUTION", response.getTimedOutPhase());
+        assertEquals("d1", response.getRequestId());
+        // Timeout do JDBC arredondado para cima, nunca os 30 segundos padrão
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    void testRequestExpiredWhileQueued() throws Exception {
+        Server.Request request = request("SELECT 1", 100);
+        request.receivedNanos -= TimeUnit.SECONDS.toNanos(1);
+
+        QueryResultDTO response = gson.fromJson(Server.processRequest(request, null), QueryResultDTO.class);
+
+        assertEquals("TIMEOUT", response.getStatus());
+        assertEquals("QUEUE", response.getTimedOutPhase());
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    void testStatementTimeoutWithoutDeadline() {
+        assertEquals(Deadline.DEFAULT_STATEMENT_TIMEOUT_S, Deadline.statementTimeoutSeconds());
+        Deadline.bind(Deadline.of(System.nanoTime(), 2500));
+        try {
+            assertEquals(3, Deadline.statementTimeoutSeconds());
+            assertNull(Deadline.expiredPhase());
+        } finally {
+            Deadline.bind(null);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.querytester;
+
+import com.querytester.testentities.Customer;
+import com.querytester.testentities.Region;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityMetadataCacheTest {
+
+    @Test
+    void testComputesOncePerClass() {
+        AtomicInteger computations = new AtomicInteger();
+        EntityMetadataCache<String> cache = EntityMetadataCache.create(type -> {
+            computations.incrementAndGet();
+            return type.getSimpleName();
+        });
+
+        assertEquals("Customer", cache.get(Customer.class));
+        assertEquals("Customer", cache.get(Customer.class));
+        assertEquals("Region", cache.get(Region.class));
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    void testConcurrentReadersSeeOneValue() throws Exception {
+        EntityMetadataCache<Object> cache = EntityMetadataCache.create(type -> new Object());
+        List<Object> seen = new CopyOnWriteArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 64; i++) {
+            pool.submit(() -> seen.add(cache.get(Customer.class)));
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(64, seen.size());
+        assertTrue(seen.stream().allMatch(value -> value == seen.get(0)));
+    }
+}
@@ -0,0 +1,43 @@
+package com.querytester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityScannerTest {
+
+    private static File mkdirs(Path root, String path) throws Exception {
+        return Files.createDirectories(root.resolve(path)).toFile();
+    }
+
+    @Test
+    void testFindsClassesOfEveryModule(@TempDir Path project) throws Exception {
+        Files.createFile(project.resolve("pom.xml"));
+        File core = mkdirs(project, "core/target/classes");
+        File billing = mkdirs(project, "modules/billing/target/classes");
+        File legacy = mkdirs(project, "modules/legacy/build/classes/java/main");
+        // Saídas de ferramentas e fontes não são módulos
+        mkdirs(project, "node_modules/lib/target/classes");
+        mkdirs(project, "core/src/main/java/target/classes");
+
+        List<File> found = EntityScanner.findClassesDirectories(project.toFile());
+
+        assertEquals(Arrays.asList(core, billing, legacy), found);
+    }
+
+    @Test
+    void testSplitsEntityPathLikeClasspath() {
+        String path = "/libs/a.jar" + File.pathSeparator + " /modules/b/target/classes " + File.pathSeparator;
+
+        assertEquals(Arrays.asList("/libs/a.jar", "/modules/b/target/classes"), EntityScanner.splitPaths(path));
+        assertEquals(Collections.emptyList(), EntityScanner.splitPaths(null));
+    }
+}
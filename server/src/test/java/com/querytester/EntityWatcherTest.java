@@ -0,0 +1,67 @@
+package com.querytester;
+
+import com.querytester.testentities.Address;
+import com.querytester.testentities.Customer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.querytester.TestClassFiles.classFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityWatcherTest {
+
+    private static final SessionFactoryRegistry.FactoryKey KEY = new SessionFactoryRegistry.FactoryKey(
+        Collections.singletonMap("url", "jdbc:h2:mem:watch"), null, null, true, "5.6.15.Final");
+
+    private static Path write(Path root, Class<?> type, String simpleName) throws Exception {
+        Path file = root.resolve("com/querytester/testentities/" + simpleName + ".class");
+        Files.createDirectories(file.getParent());
+        return Files.write(file, classFile(type));
+    }
+
+    @Test
+    void testDebouncedReloadForClassesInScannedPackages(@TempDir Path classes) throws Exception {
+        Path customer = write(classes, Customer.class, "Customer");
+        BlockingQueue<SessionFactoryRegistry.FactoryKey> reloads = new LinkedBlockingQueue<>();
+
+        try (EntityWatcher watcher = new EntityWatcher(300, reloads::add)) {
+            watcher.watch(KEY, Collections.singletonList(classes.toFile()),
+                new String[] {"com.querytester.testentities"});
+
+            // Uma rajada de escritas do compilador gera um único reload
+            for (int i = 0; i < 5; i++) {
+                Files.write(customer, classFile(Customer.class));
+                Thread.sleep(50);
+            }
+            assertEquals(KEY, reloads.poll(5, TimeUnit.SECONDS));
+            assertNull(reloads.poll(1, TimeUnit.SECONDS));
+
+            // Classe sem anotação JPA no pacote também conta: enums, conversores e classes base
+            Files.write(classes.resolve("com/querytester/testentities/Helper.class"), classFile(EntityWatcherTest.class));
+            assertEquals(KEY, reloads.poll(5, TimeUnit.SECONDS));
+
+            // Fora dos pacotes escaneados não interessa
+            Path other = classes.resolve("com/querytester/other");
+            Files.createDirectories(other);
+            Files.write(other.resolve("Helper.class"), classFile(EntityWatcherTest.class));
+            assertNull(reloads.poll(1, TimeUnit.SECONDS));
+
+            // Nova entidade em um subpacote novo
+            Path billing = classes.resolve("com/querytester/testentities/billing");
+            Files.createDirectories(billing);
+            Files.write(billing.resolve("Address.class"), classFile(Address.class));
+            assertEquals(KEY, reloads.poll(5, TimeUnit.SECONDS));
+
+            watcher.unwatch(KEY);
+            Files.delete(customer);
+            assertNull(reloads.poll(1, TimeUnit.SECONDS));
+        }
+    }
+}
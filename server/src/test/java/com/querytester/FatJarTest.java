@@ -0,0 +1,144 @@
+package com.querytester;
+
+import com.querytester.testentities.Address;
+import com.querytester.testentities.Customer;
+import com.querytester.testentities.Region;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+import static com.querytester.TestClassFiles.classFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FatJarTest {
+
+    private static String resource(Class<?> type) {
+        return type.getName().replace('.', '/') + ".class";
+    }
+
+    private static byte[] jar(Manifest manifest, Class<?>... types) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = manifest != null ? new JarOutputStream(bytes, manifest) : new JarOutputStream(bytes)) {
+            for (Class<?> type : types) {
+                out.putNextEntry(new JarEntry(resource(type)));
+                out.write(classFile(type));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Layout do Spring Boot: classes em BOOT-INF/classes e dependências como JARs armazenados sem compressão
+     */
+    private static File fatJar(Path dir) throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Spring-Boot-Classes", "BOOT-INF/classes/");
+        manifest.getMainAttributes().putValue("Spring-Boot-Lib", "BOOT-INF/lib/");
+
+        byte[] library = jar(null, Address.class, Region.class);
+        File file = dir.resolve("app.jar").toFile();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file.toPath()), manifest)) {
+            out.putNextEntry(new JarEntry("BOOT-INF/classes/" + resource(Customer.class)));
+            out.write(classFile(Customer.class));
+            out.closeEntry();
+
+            JarEntry nested = new JarEntry("BOOT-INF/lib/domain.jar");
+            CRC32 crc = new CRC32();
+            crc.update(library);
+            nested.setMethod(JarEntry.STORED);
+            nested.setSize(library.length);
+            nested.setCompressedSize(library.length);
+            nested.setCrc(crc.getValue());
+            out.putNextEntry(nested);
+            out.write(library);
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    @Test
+    void testIndexesClassesAndNestedLibraries(@TempDir Path dir) throws Exception {
+        ClassIndex index = ClassIndex.scan(Collections.singletonList(fatJar(dir)),
+            new String[] {"com.querytester.testentities"});
+
+        assertEquals(3, index.classes().size());
+        assertEquals(ClassIndex.Kind.ENTITY, index.classes().get(Customer.class.getName()));
+        assertEquals(ClassIndex.Kind.EMBEDDABLE, index.classes().get(Address.class.getName()));
+        assertEquals(ClassIndex.Kind.ENTITY, index.classes().get(Region.class.getName()));
+    }
+
+    @Test
+    void testLoadsClassesInPlace(@TempDir Path dir) throws Exception {
+        FatJar fatJar = FatJar.open(fatJar(dir));
+        // Sem o classpath dos testes, as classes só podem vir do JAR
+        FatJarClassLoader loader = new FatJarClassLoader(fatJar, ClassLoader.getPlatformClassLoader());
+
+        Class<?> customer = Class.forName(Customer.class.getName(), false, loader);
+        Class<?> region = Class.forName(Region.class.getName(), false, loader);
+
+        assertSame(loader, customer.getClassLoader());
+        assertSame(loader, region.getClassLoader());
+        assertNotSame(Customer.class, customer);
+        try (InputStream in = loader.getResourceAsStream(resource(Address.class))) {
+            assertArrayEquals(classFile(Address.class), in.readAllBytes());
+        }
+        assertNull(loader.getResourceAsStream("com/example/Missing.class"));
+    }
+
+    @Test
+    void testScanReadsFatJarAlreadyOpened(@TempDir Path dir) throws Exception {
+        File file = fatJar(dir);
+        FatJar opened = FatJar.open(file);
+        // Troca o arquivo em disco: só o mapeamento já aberto ainda tem as classes
+        Path replacement = dir.resolve("replacement.jar");
+        Files.write(replacement, jar(null));
+        Files.move(replacement, file.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+
+        ClassIndex index = ClassIndex.scan(Collections.singletonList(file), new String[] {"com.querytester.testentities"},
+            null, Collections.singletonMap(file.getAbsoluteFile(), opened));
+
+        assertEquals(3, index.classes().size());
+    }
+
+    @Test
+    void testClosedLoaderDropsArchive(@TempDir Path dir) throws Exception {
+        FatJarClassLoader loader = new FatJarClassLoader(FatJar.open(fatJar(dir)), ClassLoader.getPlatformClassLoader());
+        ClassLoaderGeneration generation = new ClassLoaderGeneration(ClassLoader.getPlatformClassLoader());
+        generation.add(loader);
+
+        generation.close();
+
+        assertThrows(ClassNotFoundException.class, () -> Class.forName(Customer.class.getName(), false, loader));
+        assertNull(loader.getResourceAsStream(resource(Address.class)));
+    }
+
+    @Test
+    void testReadsArchiveAfterLaunchScript(@TempDir Path dir) throws Exception {
+        // JARs "totalmente executáveis" começam com um script de shell
+        File file = dir.resolve("launchable.jar").toFile();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            out.write("#!/bin/bash\nexec java -jar \"$0\" \"$@\"\n".getBytes());
+            out.write(jar(null, Customer.class));
+        }
+
+        MappedZip zip = MappedZip.map(file);
+        MappedZip.Entry entry = zip.get(resource(Customer.class));
+
+        assertNotNull(entry);
+        assertArrayEquals(classFile(Customer.class), zip.read(entry));
+    }
+}
@@ -0,0 +1,91 @@
+package com.querytester;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanesTest {
+
+    private final ExecutorService bulkWorkers = Executors.newFixedThreadPool(1);
+    private final ExecutorService interactiveWorkers = Executors.newFixedThreadPool(1);
+
+    @AfterEach
+    void tearDown() {
+        bulkWorkers.shutdownNow();
+        interactiveWorkers.shutdownNow();
+    }
+
+    private static Server.Request request(String command) {
+        Server.Request request = new Server.Request();
+        request.command = command;
+        request.dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        return request;
+    }
+
+    @Test
+    void testLaneOfCommand() {
+        assertEquals(Lanes.Lane.BULK, Lanes.laneOf(request("executeQuery")));
+        assertEquals(Lanes.Lane.BULK, Lanes.laneOf(request("fetchNext")));
+        assertEquals(Lanes.Lane.INTERACTIVE, Lanes.laneOf(request("status")));
+        assertEquals(Lanes.Lane.INTERACTIVE, Lanes.laneOf(request("cancelQuery")));
+        // Pedidos inválidos só geram uma resposta de erro
+        assertEquals(Lanes.Lane.INTERACTIVE, Lanes.laneOf(null));
+    }
+
+    @Test
+    void testInteractiveRunsWhileBulkIsFull() throws Exception {
+        Lanes lanes = new Lanes(new Admission(interactiveWorkers, 1, 4), new Admission(bulkWorkers, 1, 1));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            // O único worker de consultas ocupado e a fila cheia
+            assertTrue(lanes.submit(request("executeQuery"), () -> {
+                started.countDown();
+                await(release);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(lanes.submit(request("executeQuery"), () -> { }));
+            assertFalse(lanes.submit(request("executeQuery"), () -> { }));
+
+            CountDownLatch status = new CountDownLatch(1);
+            assertTrue(lanes.submit(request("status"), status::countDown));
+            assertTrue(status.await(5, TimeUnit.SECONDS), "Comando interativo não deveria esperar pelas consultas");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testCancelAllRunsOffTheCallingThread() throws Exception {
+        Lanes lanes = new Lanes(new Admission(interactiveWorkers, 1, 4), new Admission(bulkWorkers, 1, 1));
+        Object connection = new Object();
+        Thread caller = Thread.currentThread();
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Thread[] cancelledOn = new Thread[1];
+        try (ActiveQueries.ActiveQuery waiting = ActiveQueries.registerWaiting("q", request("executeQuery"), connection,
+                () -> {
+                    cancelledOn[0] = Thread.currentThread();
+                    cancelled.countDown();
+                })) {
+            lanes.cancelAll(connection);
+
+            // O cancelamento pode esperar pelo banco, por isso fica fora da thread do seletor
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+            assertNotSame(caller, cancelledOn[0]);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
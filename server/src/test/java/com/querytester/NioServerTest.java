@@ -0,0 +1,117 @@
+package com.querytester;
+
+import com.google.gson.Gson;
+import com.querytester.dto.QueryResultDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioServerTest {
+
+    private final Gson gson = new Gson();
+    private ExecutorService workers;
+    private Thread serverThread;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Descobre uma porta livre para o servidor
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        workers = Executors.newFixedThreadPool(2);
+        NioServer server = new NioServer(port, workers);
+        serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Exception e) {
+                // Encerrado pelo teste
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForServer();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        serverThread.interrupt();
+        serverThread.join(5000);
+        workers.shutdownNow();
+    }
+
+    @Test
+    void testSeveralRequestsOnOneConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            // Duas requisições marcadas e uma linha inválida, enviadas de uma vez
+            String requests = requestLine("r1", "unknownCommand") + "{invalid json}\n" + requestLine("r2", "otherCommand");
+            out.write(requests.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            Map<String, QueryResultDTO> responses = new HashMap<>();
+            for (int i = 0; i < 3; i++) {
+                QueryResultDTO response = gson.fromJson(in.readLine(), QueryResultDTO.class);
+                responses.put(response.getRequestId(), response);
+            }
+
+            assertTrue(responses.get("r1").getMessage().contains("Unknown command: unknownCommand"));
+            assertTrue(responses.get("r2").getMessage().contains("Unknown command: otherCommand"));
+            assertTrue(responses.get(null).getMessage().contains("Error processing request"));
+        }
+    }
+
+    @Test
+    void testUntaggedRequestsAreAnsweredInOrder() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                requests.append(requestLine(null, "command" + i));
+            }
+            out.write(requests.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            for (int i = 0; i < 5; i++) {
+                QueryResultDTO response = gson.fromJson(in.readLine(), QueryResultDTO.class);
+                assertEquals("Unknown command: command" + i, response.getMessage());
+            }
+        }
+    }
+
+    private String requestLine(String id, String command) {
+        Server.Request request = new Server.Request();
+        request.id = id;
+        request.command = command;
+        request.query = "SELECT 1";
+        return gson.toJson(request) + "\n";
+    }
+
+    private void waitForServer() throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (Exception e) {
+                Thread.sleep(100);
+            }
+        }
+        fail("Server did not start");
+    }
+}
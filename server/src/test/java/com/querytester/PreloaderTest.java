@@ -0,0 +1,82 @@
+package com.querytester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreloaderTest {
+
+    @Test
+    void testPreloadsAndValidatesConfigurationsFromFile(@TempDir Path dir) throws Exception {
+        String entities = QueryExecutorIntegrationTest.testClassesPath().replace("\\", "\\\\");
+        Path file = dir.resolve("query-tester.json");
+        Files.write(file, ("{\"datasources\": [{"
+            + "\"dbConfig\": {\"url\": \"jdbc:h2:mem:preload\", \"username\": \"sa\", \"password\": \"\", \"driver\": \"org.h2.Driver\"},"
+            + "\"entityLibPath\": \"" + entities + "\","
+            + "\"entityPackages\": [\"com.querytester.testentities\"],"
+            + "\"hibernateVersion\": \"5.6.15.Final\"}]}").getBytes());
+
+        List<Preloader.Config> configs = Preloader.readConfigFile(file);
+        assertEquals(1, configs.size());
+        Preloader.start(configs).get(60, TimeUnit.SECONDS);
+
+        Map<String, Object> row = Preloader.status().stream()
+            .filter(r -> "jdbc:h2:mem:preload".equals(r.get("url")))
+            .findFirst().orElseThrow();
+        assertEquals("READY", row.get("state"), String.valueOf(row.get("error")));
+        assertEquals(true, row.get("preloaded"));
+
+        // Uma requisição com a mesma configuração usa a fábrica já construída
+        Preloader.Config config = configs.get(0);
+        assertTrue(HibernateManager.isReady(config.key()));
+        try (HibernateManager.BoundLease lease = HibernateManager.initialize(config.dbConfig, config.entityLibPath,
+                config.entityPackages, config.projectScan, config.hibernateVersion)) {
+            assertFalse(lease.getSessionFactory().isClosed());
+        }
+    }
+
+    @Test
+    void testConfigurationFromArguments() {
+        Preloader.Config config = new Preloader.Config();
+        config.dbConfig = new HashMap<>();
+
+        assertTrue(Server.applyConfigArgument(config, "--db-url=jdbc:h2:mem:args"));
+        assertTrue(Server.applyConfigArgument(config, "--entity-packages=com.a,com.b"));
+        assertTrue(Server.applyConfigArgument(config, "--project-scan"));
+        assertFalse(Server.applyConfigArgument(config, "--db-port=5432"));
+
+        assertEquals("jdbc:h2:mem:args", config.dbConfig.get("url"));
+        assertArrayEquals(new String[] {"com.a", "com.b"}, config.entityPackages);
+        assertTrue(config.projectScan);
+
+        // Opção sem valor é rejeitada com uma mensagem clara
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> Server.applyConfigArgument(config, "--entity-packages"));
+        assertTrue(e.getMessage().contains("--entity-packages"), e.getMessage());
+        assertArrayEquals(new String[] {"com.a", "com.b"}, config.entityPackages);
+    }
+
+    @Test
+    void testConfigurationWithoutHibernateVersionFails() throws Exception {
+        Preloader.Config config = new Preloader.Config();
+        config.dbConfig = new HashMap<>(QueryExecutorIntegrationTest.dbConfig());
+        config.dbConfig.put("url", "jdbc:h2:mem:preload-no-version");
+
+        Preloader.start(List.of(config)).get(10, TimeUnit.SECONDS);
+
+        Map<String, Object> row = Preloader.status().stream()
+            .filter(r -> "jdbc:h2:mem:preload-no-version".equals(r.get("url")))
+            .findFirst().orElseThrow();
+        assertEquals("FAILED", row.get("state"));
+        assertEquals("hibernateVersion is required", row.get("error"));
+        assertFalse(HibernateManager.isReady(config.key()));
+    }
+}
@@ -0,0 +1,347 @@
+package com.querytester;
+
+import com.querytester.dto.QueryResultDTO;
+import com.querytester.testentities.Customer;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Executa as consultas de ponta a ponta contra um banco H2 em memória
+ */
+class QueryExecutorIntegrationTest {
+
+    static final int CUSTOMERS = 120;
+
+    private HibernateManager.BoundLease lease;
+
+    static HibernateManager.BoundLease initialize() throws Exception {
+        return HibernateManager.initialize(dbConfig(), testClassesPath(), new String[] {"com.querytester.testentities"},
+            false, "5.6.15.Final");
+    }
+
+    @BeforeAll
+    static void setUpDatabase() throws Exception {
+        try (HibernateManager.BoundLease lease = initialize();
+             Session session = lease.getSessionFactory().openSession()) {
+            session.doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("DROP ALL OBJECTS");
+                    statement.execute("CREATE TABLE region (id BIGINT PRIMARY KEY, code VARCHAR(20))");
+                    statement.execute("CREATE TABLE customer (id BIGINT PRIMARY KEY, name VARCHAR(100), street VARCHAR(100), "
+                        + "city VARCHAR(50), region_id BIGINT)");
+                    statement.execute("CREATE TABLE purchase_order (id BIGINT PRIMARY KEY, total DECIMAL(10,2), customer_id BIGINT)");
+                    statement.execute("INSERT INTO region VALUES (1, 'NORTH'), (2, 'SOUTH')");
+                    for (int i = 1; i <= CUSTOMERS; i++) {
+                        statement.execute("INSERT INTO customer VALUES (" + i + ", 'Customer " + i + "', NULL, NULL, "
+                            + (i % 2 + 1) + ")");
+                    }
+                    statement.execute("UPDATE customer SET street = 'Rua A', city = 'Recife' WHERE id = 1");
+                    statement.execute("INSERT INTO purchase_order VALUES (1, 10.50, 1), (2, 99.90, 1)");
+                }
+            });
+        }
+    }
+
+    @BeforeEach
+    void bindFactory() throws Exception {
+        // As consultas usam a fábrica vinculada a esta thread, como em uma requisição
+        lease = initialize();
+    }
+
+    @AfterEach
+    void releaseFactory() {
+        lease.close();
+    }
+
+    static Map<String, String> dbConfig() {
+        Map<String, String> dbConfig = new HashMap<>();
+        dbConfig.put("url", "jdbc:h2:mem:querytester;DB_CLOSE_DELAY=-1");
+        dbConfig.put("username", "sa");
+        dbConfig.put("password", "");
+        dbConfig.put("driver", "org.h2.Driver");
+        return dbConfig;
+    }
+
+    static String testClassesPath() throws Exception {
+        return new File(Customer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+    }
+
+    @Test
+    void testMaterializedEntityQuery() {
+        QueryResultDTO result = QueryExecutor.executeJpql("SELECT c FROM Customer c WHERE c.id = :id",
+            Collections.singletonMap("id", 1L), null);
+
+        assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+        assertEquals(1, result.getResults().size());
+        Map<String, Object> row = result.getResults().get(0);
+        assertEquals(1L, row.get("id"));
+        assertEquals("Customer 1", row.get("name"));
+        assertEquals(2L, row.get("region_id"));
+        assertEquals("SOUTH", row.get("region_label"));
+        assertEquals("Recife", row.get("address.city"));
+        // Coleção lazy é contada como nas classes não mapeadas
+        assertEquals(2, row.get("orders_count"));
+        assertEquals(List.of("id", "name", "address.street", "address.city", "region_id", "region_label", "orders_count"),
+            new ArrayList<>(row.keySet()));
+    }
+
+    @Test
+    void testFetchedCollectionIsCounted() {
+        QueryResultDTO result = QueryExecutor.executeJpql(
+            "SELECT DISTINCT c FROM Customer c LEFT JOIN FETCH c.orders WHERE c.id = :id",
+            Collections.singletonMap("id", 1L), Collections.singleton("orders"));
+
+        assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+        assertEquals(Collections.singletonMap("orders_count", 2), result.getResults().get(0));
+    }
+
+    @Test
+    void testCursorPathMatchesMaterializedPath() {
+        String jpql = "SELECT c FROM Customer c ORDER BY c.id";
+        QueryResultDTO materialized = QueryExecutor.executeJpql(jpql, null, null);
+        // Intervalo de limpeza pequeno para forçar várias chamadas a Session.clear()
+        QueryResultDTO scrolled = QueryExecutor.executeJpql(jpql, null, null,
+            QueryOptions.defaults().setFetchSize(25).setSessionClearInterval(7));
+
+        assertEquals("SUCCESS", scrolled.getStatus(), scrolled.getMessage());
+        assertEquals(CUSTOMERS, scrolled.getResults().size());
+        assertEquals(materialized.getResults(), scrolled.getResults());
+    }
+
+    @Test
+    void testStreamedJpqlArrivesInChunks() {
+        List<String> header = new ArrayList<>();
+        List<Integer> chunkSizes = new ArrayList<>();
+
+        QueryResultDTO trailer = QueryExecutor.streamJpql("SELECT c FROM Customer c", null,
+            Collections.singleton("name"), QueryOptions.defaults().setChunkSize(50).setSessionClearInterval(10),
+            new QueryExecutor.RowChunkListener() {
+                @Override
+                public void onHeader(List<String> columns, long executionTime) {
+                    assertTrue(chunkSizes.isEmpty(), "header must come first");
+                    header.addAll(columns);
+                }
+
+                @Override
+                public void onRows(int sequence, List<Map<String, Object>> rows) {
+                    assertEquals(chunkSizes.size(), sequence);
+                    chunkSizes.add(rows.size());
+                }
+            });
+
+        assertEquals("SUCCESS", trailer.getStatus(), trailer.getMessage());
+        assertEquals("trailer", trailer.getFrame());
+        assertEquals(Long.valueOf(CUSTOMERS), trailer.getTotalRows());
+        assertEquals(Collections.singletonList("name"), header);
+        assertEquals(List.of(50, 50, 20), chunkSizes);
+    }
+
+    @Test
+    void testStreamedNativeSqlWithNoRows() {
+        List<String> header = new ArrayList<>();
+        QueryResultDTO trailer = QueryExecutor.streamNativeSql("SELECT id, name FROM customer WHERE id < 0", null,
+            QueryOptions.defaults(), new QueryExecutor.RowChunkListener() {
+                @Override
+                public void onHeader(List<String> columns, long executionTime) {
+                    header.add("sent");
+                }
+
+                @Override
+                public void onRows(int sequence, List<Map<String, Object>> rows) {
+                    fail("no rows expected");
+                }
+            });
+
+        assertEquals("SUCCESS", trailer.getStatus(), trailer.getMessage());
+        assertEquals(Long.valueOf(0), trailer.getTotalRows());
+        assertEquals(1, header.size());
+    }
+
+    @Test
+    void testKeysetPagesCoverWholeResult() {
+        Pagination.Page page = new Pagination.Page(50);
+        QueryOptions options = QueryOptions.defaults().setPage(page);
+        List<Object> ids = new ArrayList<>();
+
+        QueryResultDTO result;
+        do {
+            result = QueryExecutor.executeJpql("SELECT c FROM Customer c WHERE c.name LIKE :name",
+                Collections.singletonMap("name", "Customer%"), Collections.singleton("id"), options);
+            assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+            result.getResults().forEach(row -> ids.add(row.get("id")));
+        } while (result.getHasMore());
+
+        assertNotNull(page.getKeyset(), "root entity query should be paged by id");
+        assertEquals(CUSTOMERS, ids.size());
+        assertEquals(1L, ids.get(0));
+        assertEquals((long) CUSTOMERS, ids.get(CUSTOMERS - 1));
+        assertEquals(Long.valueOf(CUSTOMERS), page.getLastKey());
+    }
+
+    @Test
+    void testJoinedJpqlFallsBackToOffset() {
+        // O cliente 1 tem dois pedidos, então aparece duas vezes e atravessa a fronteira entre páginas
+        Pagination.Page page = new Pagination.Page(1);
+        QueryOptions options = QueryOptions.defaults().setPage(page);
+        List<Object> ids = new ArrayList<>();
+
+        QueryResultDTO result;
+        do {
+            result = QueryExecutor.executeJpql("SELECT c FROM Customer c JOIN c.orders o", null,
+                Collections.singleton("id"), options);
+            assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+            result.getResults().forEach(row -> ids.add(row.get("id")));
+        } while (result.getHasMore());
+
+        assertNull(page.getKeyset());
+        assertEquals(List.of(1L, 1L), ids);
+    }
+
+    @Test
+    void testCommaJoinedJpqlFallsBackToOffset() {
+        // A junção por vírgula também repete o cliente 1 nas duas páginas
+        Pagination.Page page = new Pagination.Page(1);
+        QueryOptions options = QueryOptions.defaults().setPage(page);
+        List<Object> ids = new ArrayList<>();
+
+        QueryResultDTO result;
+        do {
+            result = QueryExecutor.executeJpql("SELECT c FROM Customer c, PurchaseOrder o WHERE o.customer = c", null,
+                Collections.singleton("id"), options);
+            assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+            result.getResults().forEach(row -> ids.add(row.get("id")));
+        } while (result.getHasMore());
+
+        assertNull(page.getKeyset());
+        assertEquals(List.of(1L, 1L), ids);
+    }
+
+    @Test
+    void testOrderedJpqlFallsBackToOffset() {
+        Pagination.Page page = new Pagination.Page(100);
+        QueryOptions options = QueryOptions.defaults().setPage(page);
+
+        QueryResultDTO first = QueryExecutor.executeJpql("SELECT c FROM Customer c ORDER BY c.id DESC", null, null, options);
+        QueryResultDTO second = QueryExecutor.executeJpql("SELECT c FROM Customer c ORDER BY c.id DESC", null, null, options);
+
+        assertNull(page.getKeyset());
+        assertEquals(100, first.getResults().size());
+        assertTrue(first.getHasMore());
+        assertEquals((long) CUSTOMERS, first.getResults().get(0).get("id"));
+        assertEquals(CUSTOMERS - 100, second.getResults().size());
+        assertFalse(second.getHasMore());
+        assertEquals(1L, second.getResults().get(CUSTOMERS - 101).get("id"));
+    }
+
+    @Test
+    void testNativeSqlIsWrappedForPaging() {
+        Pagination.Page page = new Pagination.Page(CUSTOMERS);
+        QueryResultDTO result = QueryExecutor.executeNativeSql("SELECT id, name FROM customer ORDER BY id;", null,
+            QueryOptions.defaults().setPage(page));
+
+        assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+        assertEquals(CUSTOMERS, result.getResults().size());
+        assertFalse(result.getHasMore(), "exactly one full page has no next page");
+        assertEquals(CUSTOMERS, page.getOffset());
+    }
+
+    @Test
+    void testJoinedNativeSqlIsPagedWithoutDerivedTable() {
+        // O LIMIT vai no fim da consulta, e em outra linha por causa do comentario
+        String sql = "SELECT c.name, o.total FROM customer c JOIN purchase_order o ON o.customer_id = c.id ORDER BY o.id -- pedidos";
+        assertEquals(sql + "\nLIMIT 2 OFFSET 0", Pagination.wrapNative(sql, DatabaseKind.H2, 0, 2));
+
+        Pagination.Page page = new Pagination.Page(1);
+        QueryOptions options = QueryOptions.defaults().setPage(page);
+        QueryResultDTO first = QueryExecutor.executeNativeSql(sql, null, options);
+        QueryResultDTO second = QueryExecutor.executeNativeSql(sql, null, options);
+
+        assertEquals("SUCCESS", first.getStatus(), first.getMessage());
+        assertEquals(1, first.getResults().size());
+        assertTrue(first.getHasMore());
+        assertEquals("SUCCESS", second.getStatus(), second.getMessage());
+        assertEquals(1, second.getResults().size());
+        assertFalse(second.getHasMore());
+        assertEquals(2, page.getOffset());
+    }
+
+    @Test
+    void testNativeSqlWithItsOwnLimitIsPaged() {
+        Pagination.Page page = new Pagination.Page(2);
+        QueryResultDTO result = QueryExecutor.executeNativeSql("SELECT id FROM customer ORDER BY id LIMIT 3", null,
+            QueryOptions.defaults().setPage(page));
+
+        assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+        assertEquals(2, result.getResults().size());
+        assertTrue(result.getHasMore());
+    }
+
+    @Test
+    void testNativeCteIsPagedByOffset() {
+        Pagination.Page page = new Pagination.Page(CUSTOMERS - 1);
+        String sql = "WITH t AS (SELECT id FROM customer) SELECT id FROM t ORDER BY id";
+        assertNull(Pagination.wrapNative(sql, DatabaseKind.H2, 0, CUSTOMERS));
+
+        QueryResultDTO result = QueryExecutor.executeNativeSql(sql, null, QueryOptions.defaults().setPage(page));
+
+        assertEquals("SUCCESS", result.getStatus(), result.getMessage());
+        assertEquals(CUSTOMERS - 1, result.getResults().size());
+        assertTrue(result.getHasMore());
+    }
+
+    @Test
+    void testSelectsRunReadOnlyByDefault() {
+        assertTrue(QueryOptions.defaults().isReadOnly("SELECT c FROM Customer c"));
+        assertTrue(QueryOptions.defaults().isReadOnly("  from Customer"));
+        assertTrue(QueryOptions.defaults().isReadOnly("WITH t AS (SELECT 1) SELECT * FROM t"));
+        assertFalse(QueryOptions.defaults().isReadOnly("UPDATE customer SET name = 'x'"));
+        assertFalse(QueryOptions.defaults().setReadOnly(false).isReadOnly("SELECT c FROM Customer c"));
+
+        // As duas variantes de sessão devem produzir o mesmo resultado
+        String jpql = "SELECT c FROM Customer c WHERE c.id = :id";
+        QueryResultDTO readOnly = QueryExecutor.executeJpql(jpql, Collections.singletonMap("id", 2L), null,
+            QueryOptions.defaults());
+        QueryResultDTO readWrite = QueryExecutor.executeJpql(jpql, Collections.singletonMap("id", 2L), null,
+            QueryOptions.defaults().setReadOnly(false));
+
+        assertEquals("SUCCESS", readOnly.getStatus(), readOnly.getMessage());
+        assertEquals(readWrite.getResults(), readOnly.getResults());
+    }
+
+    @Test
+    void testReadOnlySessionDoesNotWriteLoadedEntities() throws Exception {
+        String jpql = "SELECT c FROM Customer c WHERE c.id = :id";
+        java.lang.reflect.Field name = Customer.class.getDeclaredField("name");
+        name.setAccessible(true);
+
+        try (Session session = QueryExecutor.beginSession(jpql, QueryOptions.defaults())) {
+            Customer customer = session.createQuery(jpql, Customer.class).setParameter("id", 3L).getSingleResult();
+            assertTrue(session.isReadOnly(customer), "SELECT deveria carregar entidades sem snapshot");
+            assertEquals(FlushMode.MANUAL, session.getHibernateFlushMode());
+
+            // Sem snapshot nem flush, a alteracao nao chega ao banco no commit
+            name.set(customer, "Changed");
+            assertFalse(session.isDirty());
+            session.getTransaction().commit();
+        }
+        try (Session session = QueryExecutor.beginSession(jpql, QueryOptions.defaults().setReadOnly(false))) {
+            Customer customer = session.createQuery(jpql, Customer.class).setParameter("id", 3L).getSingleResult();
+            assertFalse(session.isReadOnly(customer));
+            assertEquals("Customer 3", customer.getName());
+        }
+    }
+}
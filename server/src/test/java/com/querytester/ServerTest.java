@@ -63,7 +63,7 @@ class ServerTest {
         expectedResult.setStatus("SUCCESS");
         expectedResult.setMessage("JPQL query executed successfully");
         
-        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any()))
+        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()))
             .thenReturn(expectedResult);
         
         // Chamar o método sob teste - precisamos usar reflexão para acessar o método privado
@@ -77,7 +77,7 @@ class ServerTest {
         assertTrue(response.contains("JPQL query executed successfully"));
         
         // Verificar interação com QueryExecutor
-        queryExecutorMock.verify(() -> QueryExecutor.executeJpql(eq("SELECT e FROM Entity e"), any(), any()));
+        queryExecutorMock.verify(() -> QueryExecutor.executeJpql(eq("SELECT e FROM Entity e"), any(), any(), any()));
     }
     
     @Test
@@ -104,7 +104,7 @@ class ServerTest {
         expectedResult.setStatus("SUCCESS");
         expectedResult.setMessage("Native SQL query executed successfully");
         
-        queryExecutorMock.when(() -> QueryExecutor.executeNativeSql(anyString(), any()))
+        queryExecutorMock.when(() -> QueryExecutor.executeNativeSql(anyString(), any(), any()))
             .thenReturn(expectedResult);
         
         // Chamar o método sob teste
@@ -118,7 +118,7 @@ class ServerTest {
         assertTrue(response.contains("Native SQL query executed successfully"));
         
         // Verificar interação com QueryExecutor
-        queryExecutorMock.verify(() -> QueryExecutor.executeNativeSql(eq("SELECT * FROM entity"), any()));
+        queryExecutorMock.verify(() -> QueryExecutor.executeNativeSql(eq("SELECT * FROM entity"), any(), any()));
     }
     
     @Test
@@ -173,6 +173,105 @@ class ServerTest {
         assertTrue(response.contains("Error processing request"));
     }
     
+    @Test
+    void testHandleClient_MultiplexedRequestsOnOneConnection() throws Exception {
+        Socket socket = mock(Socket.class);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // Três requisições na mesma conexão: duas marcadas com id e uma sem id
+        StringBuilder requestJson = new StringBuilder();
+        for (String id : new String[] {"a1", "b2", null}) {
+            Server.Request request = new Server.Request();
+            request.id = id;
+            request.command = "executeQuery";
+            request.query = "SELECT e FROM Entity e";
+            request.params = new HashMap<>();
+            requestJson.append(gson.toJson(request)).append("\n");
+        }
+
+        when(socket.getInputStream()).thenReturn(new ByteArrayInputStream(requestJson.toString().getBytes()));
+        when(socket.getOutputStream()).thenReturn(outputStream);
+
+        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()))
+            .thenReturn(new QueryResultDTO());
+
+        // Os mocks estáticos valem só nesta thread, então as requisições marcadas rodam nela também
+        Admission direct = new Admission(Runnable::run, 1, 10);
+        Lanes previous = Server.setLanes(new Lanes(direct, direct));
+        try {
+            java.lang.reflect.Method handleClientMethod = Server.class.getDeclaredMethod("handleClient", Socket.class);
+            handleClientMethod.setAccessible(true);
+            handleClientMethod.invoke(null, socket);
+        } finally {
+            Server.setLanes(previous);
+        }
+
+        // Cada requisição recebe exatamente uma linha de resposta, marcada com o seu id
+        String[] lines = outputStream.toString().trim().split("\n");
+        assertEquals(3, lines.length);
+        Map<String, String> statusById = new HashMap<>();
+        for (String line : lines) {
+            QueryResultDTO response = gson.fromJson(line, QueryResultDTO.class);
+            statusById.put(response.getRequestId(), response.getStatus() + ": " + response.getMessage());
+        }
+        assertEquals(3, statusById.size());
+        for (String id : new String[] {"a1", "b2", null}) {
+            assertTrue(statusById.containsKey(id), "Sem resposta para " + id);
+            assertTrue(statusById.get(id).startsWith("SUCCESS"), id + " -> " + statusById.get(id));
+        }
+        queryExecutorMock.verify(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()), times(3));
+        verify(socket).close();
+    }
+
+    @Test
+    void testHandleClient_StreamedResponseFrames() throws Exception {
+        Socket socket = mock(Socket.class);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        Server.Request request = new Server.Request();
+        request.command = "executeQuery";
+        request.query = "SELECT e FROM Entity e";
+        request.params = new HashMap<>();
+        request.stream = true;
+        request.chunkSize = 2;
+
+        when(socket.getInputStream()).thenReturn(new ByteArrayInputStream((gson.toJson(request) + "\n").getBytes()));
+        when(socket.getOutputStream()).thenReturn(outputStream);
+
+        // Simula o executor enviando cabeçalho e dois blocos de linhas
+        queryExecutorMock.when(() -> QueryExecutor.streamJpql(anyString(), any(), any(), any(), any()))
+            .thenAnswer(invocation -> {
+                QueryExecutor.RowChunkListener listener = invocation.getArgument(4);
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", 1);
+                listener.onHeader(java.util.Collections.singletonList("id"), 5);
+                listener.onRows(0, java.util.Arrays.asList(row, row));
+                listener.onRows(1, java.util.Collections.singletonList(row));
+                QueryResultDTO trailer = new QueryResultDTO();
+                trailer.setFrame("trailer");
+                trailer.setTotalRows(3L);
+                return trailer;
+            });
+
+        java.lang.reflect.Method handleClientMethod = Server.class.getDeclaredMethod("handleClient", Socket.class);
+        handleClientMethod.setAccessible(true);
+        handleClientMethod.invoke(null, socket);
+
+        String[] lines = outputStream.toString().trim().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].contains("\"frame\":\"header\""));
+        assertTrue(lines[1].contains("\"frame\":\"rows\"") && lines[1].contains("\"sequence\":0"));
+        assertTrue(lines[2].contains("\"frame\":\"rows\"") && lines[2].contains("\"sequence\":1"));
+        QueryResultDTO trailer = gson.fromJson(lines[3], QueryResultDTO.class);
+        assertEquals("trailer", trailer.getFrame());
+        assertEquals(3L, trailer.getTotalRows());
+
+        // Com "stream" o caminho materializado não é usado
+        queryExecutorMock.verify(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()), never());
+        queryExecutorMock.verify(() -> QueryExecutor.streamJpql(eq("SELECT e FROM Entity e"), any(), any(),
+            argThat(options -> options.getChunkSize() == 2), any()));
+    }
+
     @Test
     void testHandleRequest_NullRequest() {
         // Chamar o método sob teste
@@ -209,6 +308,24 @@ class ServerTest {
     }
     
     
+    @Test
+    void testHandleRequest_FetchNextUnknownCursor() {
+        Server.Request request = new Server.Request();
+        request.command = "fetchNext";
+        request.cursor = "nao-existe";
+
+        try {
+            java.lang.reflect.Method handleRequestMethod = Server.class.getDeclaredMethod("handleRequest", Server.Request.class);
+            handleRequestMethod.setAccessible(true);
+            QueryResultDTO result = (QueryResultDTO) handleRequestMethod.invoke(null, request);
+
+            assertEquals("ERROR", result.getStatus());
+            assertTrue(result.getMessage().contains("Unknown or expired cursor"));
+        } catch (Exception e) {
+            fail("Exceção não deveria ser lançada: " + e.getMessage());
+        }
+    }
+
     @Test
     void testHandleRequest_QueryExecutionError() {
         // Preparar requisição válida
@@ -220,7 +337,7 @@ class ServerTest {
         request.dbConfig = new HashMap<>();
         
         // Mockar QueryExecutor para lançar exceção
-        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any()))
+        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()))
             .thenThrow(new RuntimeException("Query execution error"));
         
         // Chamar o método sob teste
@@ -251,7 +368,7 @@ class ServerTest {
         QueryResultDTO expectedResult = new QueryResultDTO();
         expectedResult.setStatus("SUCCESS");
         
-        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any()))
+        queryExecutorMock.when(() -> QueryExecutor.executeJpql(anyString(), any(), any(), any()))
             .thenReturn(expectedResult);
         
         // Chamar o método sob teste
@@ -266,7 +383,8 @@ class ServerTest {
             queryExecutorMock.verify(() -> QueryExecutor.executeJpql(
                 eq("SELECT e FROM Entity e"), 
                 any(), 
-                argThat(set -> set != null && set.contains("id") && set.contains("name") && set.size() == 2)
+                argThat(set -> set != null && set.contains("id") && set.contains("name") && set.size() == 2),
+                any()
             ));
         } catch (Exception e) {
             fail("Exceção não deveria ser lançada: " + e.getMessage());
@@ -0,0 +1,176 @@
+package com.querytester;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class SessionFactoryRegistryTest {
+
+    private final List<SessionFactory> closed = new CopyOnWriteArrayList<>();
+
+    private static SessionFactoryRegistry.FactoryKey key(String url) {
+        return new SessionFactoryRegistry.FactoryKey(Collections.singletonMap("url", url), "/lib/entities.jar",
+            new String[] {"com.example"}, false, "5.6.15.Final");
+    }
+
+    @Test
+    void testSameConfigurationReusesFactory() {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(2, 60_000, closed::add);
+        SessionFactory factory = mock(SessionFactory.class);
+
+        try (SessionFactoryRegistry.Lease first = registry.acquire(key("jdbc:h2:mem:a"), () -> factory);
+             SessionFactoryRegistry.Lease second = registry.acquire(key("jdbc:h2:mem:a"),
+                 () -> fail("não deveria construir de novo"))) {
+            assertSame(factory, first.getSessionFactory());
+            assertSame(factory, second.getSessionFactory());
+        }
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsClosedAfterLastLease() {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(1, 60_000, closed::add);
+        SessionFactory staging = mock(SessionFactory.class);
+        SessionFactory qa = mock(SessionFactory.class);
+
+        SessionFactoryRegistry.Lease running = registry.acquire(key("jdbc:postgresql://staging/app"), () -> staging);
+        registry.acquire(key("jdbc:postgresql://qa/app"), () -> qa).close();
+
+        // Removida do registro, mas a consulta em andamento ainda a usa
+        assertEquals(1, registry.size());
+        assertTrue(closed.isEmpty());
+
+        running.close();
+        assertEquals(List.of(staging), closed);
+    }
+
+    @Test
+    void testStatusAndRefreshDoNotCountAsUse() throws Exception {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(2, 60_000, closed::add);
+        SessionFactory preloaded = mock(SessionFactory.class);
+        SessionFactory onDemand = mock(SessionFactory.class);
+
+        registry.acquire(key("jdbc:h2:mem:on-demand"), () -> onDemand).close();
+        registry.acquire(key("jdbc:h2:mem:preloaded"), () -> preloaded).close();
+        // Consultar o status e recarregar não tornam a fábrica sob demanda mais recente
+        assertTrue(registry.isReady(key("jdbc:h2:mem:on-demand")));
+        registry.refresh(key("jdbc:h2:mem:on-demand")).get(5, TimeUnit.SECONDS);
+
+        registry.acquire(key("jdbc:h2:mem:third"), () -> mock(SessionFactory.class)).close();
+
+        assertTrue(registry.isReady(key("jdbc:h2:mem:preloaded")));
+        assertFalse(registry.isReady(key("jdbc:h2:mem:on-demand")));
+        assertFalse(closed.contains(preloaded));
+    }
+
+    @Test
+    void testIdleFactoriesAreClosed() throws Exception {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(4, 10, closed::add);
+        SessionFactory factory = mock(SessionFactory.class);
+        registry.acquire(key("jdbc:h2:mem:idle"), () -> factory).close();
+
+        Thread.sleep(30);
+        registry.evictIdle();
+
+        assertEquals(0, registry.size());
+        assertEquals(List.of(factory), closed);
+    }
+
+    @Test
+    void testConcurrentRequestsShareOneBuild() throws Exception {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(2, 60_000, closed::add);
+        SessionFactory factory = mock(SessionFactory.class);
+        AtomicInteger builds = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<CompletableFuture<SessionFactory>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(CompletableFuture.supplyAsync(() -> {
+                try (SessionFactoryRegistry.Lease lease = registry.acquire(key("jdbc:h2:mem:shared"), () -> {
+                    builds.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return factory;
+                })) {
+                    return lease.getSessionFactory();
+                }
+            }));
+        }
+        Thread.sleep(100); // Todas as requisições aguardando o mesmo build
+        release.countDown();
+
+        for (CompletableFuture<SessionFactory> request : requests) {
+            assertSame(factory, request.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void testRefreshKeepsServingOldFactoryUntilSwap() throws Exception {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(2, 60_000, closed::add);
+        SessionFactory old = mock(SessionFactory.class);
+        SessionFactory rebuilt = mock(SessionFactory.class);
+        CountDownLatch rebuildGate = new CountDownLatch(1);
+        AtomicInteger builds = new AtomicInteger();
+
+        SessionFactoryRegistry.Lease running = registry.acquire(key("jdbc:h2:mem:swap"), () -> {
+            if (builds.getAndIncrement() == 0) {
+                return old;
+            }
+            try {
+                rebuildGate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return rebuilt;
+        });
+
+        CompletableFuture<Void> refresh = registry.refresh(key("jdbc:h2:mem:swap"));
+        try (SessionFactoryRegistry.Lease during = registry.acquire(key("jdbc:h2:mem:swap"), () -> fail("sem build"))) {
+            assertSame(old, during.getSessionFactory());
+        }
+
+        rebuildGate.countDown();
+        refresh.get(5, TimeUnit.SECONDS);
+        try (SessionFactoryRegistry.Lease after = registry.acquire(key("jdbc:h2:mem:swap"), () -> fail("sem build"))) {
+            assertSame(rebuilt, after.getSessionFactory());
+        }
+
+        // A fábrica antiga só fecha quando a consulta em andamento termina
+        assertTrue(closed.isEmpty());
+        running.close();
+        assertEquals(List.of(old), closed);
+    }
+
+    @Test
+    void testFailedBuildIsRetriedByNextRequest() {
+        SessionFactoryRegistry registry = new SessionFactoryRegistry(2, 60_000, closed::add);
+        RuntimeException failure = new RuntimeException("Hibernate initialization failed");
+
+        RuntimeException thrown = assertThrows(RuntimeException.class,
+            () -> registry.acquire(key("jdbc:h2:mem:broken"), () -> {
+                throw failure;
+            }));
+        assertSame(failure, thrown);
+        assertEquals(0, registry.size());
+
+        SessionFactory factory = mock(SessionFactory.class);
+        try (SessionFactoryRegistry.Lease lease = registry.acquire(key("jdbc:h2:mem:broken"), () -> factory)) {
+            assertSame(factory, lease.getSessionFactory());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.querytester;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    // Seguidores nunca chegam às lanes; pedidos admitidos rodariam na própria thread do teste
+    private static final Admission DIRECT = new Admission(Runnable::run, 1, 10);
+    private static final Lanes LANES = new Lanes(DIRECT, DIRECT);
+
+    private static Server.Request request(String query) {
+        Server.Request request = new Server.Request();
+        request.command = "executeQuery";
+        request.query = query;
+        request.isNative = true;
+        request.dbConfig = QueryExecutorIntegrationTest.dbConfig();
+        return request;
+    }
+
+    @Test
+    void testKey() {
+        assertEquals(SingleFlight.key(request("SELECT *\n  FROM  customer")), SingleFlight.key(request("SELECT * FROM customer")));
+        // Espaços dentro de literais fazem parte da consulta
+        assertNotEquals(SingleFlight.key(request("SELECT 'a  b'")), SingleFlight.key(request("SELECT 'a b'")));
+        // A quebra de linha encerra o comentario, entao muda as colunas selecionadas
+        assertNotEquals(SingleFlight.key(request("SELECT a -- note\n, b FROM t")),
+            SingleFlight.key(request("SELECT a -- note , b FROM t")));
+
+        assertNull(SingleFlight.key(request("UPDATE customer SET name = 'x'")));
+        Server.Request paged = request("SELECT * FROM customer");
+        paged.pageSize = 10;
+        assertNull(SingleFlight.key(paged));
+        // SELECT pedido explicitamente em modo escrita roda sozinho
+        Server.Request readWrite = request("SELECT * FROM customer");
+        readWrite.readOnly = false;
+        assertNull(SingleFlight.key(readWrite));
+    }
+
+    @Test
+    void testFollowerGetsLeaderResult() throws Exception {
+        List<Object> key = List.of("testFollowerGetsLeaderResult");
+        SingleFlight.Flight leader = SingleFlight.join(key);
+        SingleFlight.Flight follower = SingleFlight.join(key);
+        assertTrue(leader.leader);
+        assertFalse(follower.leader);
+
+        SingleFlight.Shared shared = new SingleFlight.Shared("{\"status\":\"SUCCESS\"}", true);
+        leader.finish(shared);
+        assertSame(shared, follower.result().get(5, TimeUnit.SECONDS));
+        // Terminada a execução, o próximo pedido lidera uma nova
+        assertTrue(SingleFlight.join(key).leader);
+    }
+
+    @Test
+    void testFollowerIsAnsweredWithoutAWorker() throws Exception {
+        Server.Request request = request("SELECT 'testFollowerIsAnsweredWithoutAWorker'");
+        request.id = "f1";
+        SingleFlight.Flight leader = SingleFlight.join(SingleFlight.key(request));
+
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        Server.dispatch(LANES, request, null, answer::complete, () -> { });
+        assertFalse(answer.isDone());
+        assertEquals(true, waiting("f1").get("coalesced"));
+
+        leader.finish(new SingleFlight.Shared("{\"status\":\"SUCCESS\"}", true));
+        assertEquals("{\"requestId\":\"f1\",\"status\":\"SUCCESS\"}", answer.get(5, TimeUnit.SECONDS));
+        assertTrue(ActiveQueries.list().stream().noneMatch(row -> "f1".equals(row.get("requestId"))));
+    }
+
+    @Test
+    void testWaitingFollowerCanBeCancelled() throws Exception {
+        Server.Request request = request("SELECT 'testWaitingFollowerCanBeCancelled'");
+        request.id = "f2";
+        SingleFlight.Flight leader = SingleFlight.join(SingleFlight.key(request));
+        try {
+            CompletableFuture<String> answer = new CompletableFuture<>();
+            Server.dispatch(LANES, request, null, answer::complete, () -> { });
+
+            assertTrue(ActiveQueries.cancel((String) waiting("f2").get("queryId")));
+            String line = answer.get(5, TimeUnit.SECONDS);
+            assertTrue(line.contains("\"status\":\"CANCELLED\""), line);
+            assertTrue(line.contains("\"requestId\":\"f2\""), line);
+        } finally {
+            leader.finish(null);
+        }
+    }
+
+    @Test
+    void testWaitingFollowerStopsAtItsDeadline() throws Exception {
+        Server.Request request = request("SELECT 'testWaitingFollowerStopsAtItsDeadline'");
+        request.id = "f3";
+        request.timeoutMs = 100;
+        request.receivedNanos = System.nanoTime();
+        SingleFlight.Flight leader = SingleFlight.join(SingleFlight.key(request));
+        try {
+            CompletableFuture<String> answer = new CompletableFuture<>();
+            Server.dispatch(LANES, request, null, answer::complete, () -> { });
+
+            String line = answer.get(5, TimeUnit.SECONDS);
+            assertTrue(line.contains("\"status\":\"TIMEOUT\""), line);
+            assertTrue(line.contains("\"timedOutPhase\":\"EXECUTION\""), line);
+        } finally {
+            leader.finish(null);
+        }
+    }
+
+    @Test
+    void testFollowerRunsItselfWhenLeaderWasCancelled() throws Exception {
+        Server.Request request = request("SELECT 1 AS one");
+        request.id = "f4";
+        request.entityLibPath = QueryExecutorIntegrationTest.testClassesPath();
+        request.entityPackages = new String[] {"com.querytester.testentities"};
+        request.hibernateVersion = "5.6.15.Final";
+        SingleFlight.Flight leader = SingleFlight.join(SingleFlight.key(request));
+        AtomicInteger admitted = new AtomicInteger();
+        Admission counting = new Admission(task -> {
+            admitted.incrementAndGet();
+            task.run();
+        }, 1, 10);
+
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        Server.dispatch(new Lanes(counting, counting), request, null, answer::complete, () -> { });
+        assertEquals(0, admitted.get());
+
+        // Resposta do líder cancelado não serve ao seguidor, que passa pela admissão e executa
+        leader.finish(new SingleFlight.Shared("{\"status\":\"CANCELLED\"}", false));
+        String line = answer.get(60, TimeUnit.SECONDS);
+        assertEquals(1, admitted.get());
+        assertTrue(line.contains("\"status\":\"SUCCESS\""), line);
+    }
+
+    private static Map<String, Object> waiting(String requestId) {
+        return ActiveQueries.list().stream()
+            .filter(row -> requestId.equals(row.get("requestId")))
+            .findFirst().orElseThrow();
+    }
+}
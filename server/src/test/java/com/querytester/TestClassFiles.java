@@ -0,0 +1,18 @@
+package com.querytester;
+
+import java.io.InputStream;
+
+/**
+ * Bytes dos arquivos .class das classes de teste, para montar diretorios e JARs de entidades
+ */
+final class TestClassFiles {
+
+    private TestClassFiles() {
+    }
+
+    static byte[] classFile(Class<?> type) throws Exception {
+        try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
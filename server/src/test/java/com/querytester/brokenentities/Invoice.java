@@ -0,0 +1,17 @@
+package com.querytester.brokenentities;
+
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Entidade sem @Id: o mapeamento falha ao construir os metadados
+ */
+@Entity
+@Table(name = "invoice")
+public class Invoice {
+    private Long id;
+
+    public Long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,56 @@
+package com.querytester.testentities;
+
+import javax.persistence.Column;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+@Table(name = "customer")
+public class Customer {
+    @Id
+    private Long id;
+
+    @Column(name = "name")
+    private String name;
+
+    @Embedded
+    private Address address;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private Region region;
+
+    @OneToMany(mappedBy = "customer")
+    private List<PurchaseOrder> orders = new ArrayList<>();
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public List<PurchaseOrder> getOrders() {
+        return orders;
+    }
+
+    @Override
+    public String toString() {
+        return "Customer " + id;
+    }
+}
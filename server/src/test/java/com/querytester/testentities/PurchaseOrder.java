@@ -0,0 +1,31 @@
+package com.querytester.testentities;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import java.math.BigDecimal;
+
+@Entity
+@Table(name = "purchase_order")
+public class PurchaseOrder {
+    @Id
+    private Long id;
+
+    private BigDecimal total;
+
+    @ManyToOne
+    private Customer customer;
+
+    public Long getId() {
+        return id;
+    }
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+}